@@ -0,0 +1,126 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * allocation-rate check of the primitive evaluation paths of {@link Calculation}
+ * <p>
+ * every path is called on one reused instance until the JIT has settled, then the bytes the thread allocates
+ * over `-n` more calls are read from the thread MXBean. a measurement is repeated `-r` times and the smallest is
+ * kept, so a late compilation in one repetition does not count against the path. the string, `char[]`, `byte[]`
+ * and push-style evaluators and compiled code must allocate nothing per call in steady state; the static
+ * `calculate` is left out because it returns a new {@link java.util.Optional}
+ * <pre>
+ * java AllocationBenchmark [-n calls] [-w warmups] [-r repeats]
+ * </pre>
+ * the exit status is 1 when a path allocated
+ */
+public class AllocationBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * results are folded in here so the JIT cannot drop the work
+     */
+    private static volatile int sink;
+
+    private int calls = 200_000;
+    private int warmups = 5;
+    private int repeats = 3;
+
+    private final List<String> allocating = new ArrayList<>();
+
+    public static void main(String[] args) {
+        AllocationBenchmark bench = new AllocationBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n" -> bench.calls = Integer.parseInt(args[++i]);
+                case "-w" -> bench.warmups = Integer.parseInt(args[++i]);
+                case "-r" -> bench.repeats = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        System.exit(bench.run() ? 0 : 1);
+    }
+
+    /**
+     * measure every path and print one line each
+     * @return true if no path allocated
+     */
+    private boolean run() {
+        System.out.printf("%-28s %14s %12s%n", "path", "bytes", "B/call");
+        Calculation calc = new Calculation();
+
+        String mixed = CalculationBenchmark.Expressions.mixed(100, 10, 1L);
+        measure("evaluate/string", i -> calc.evaluate(mixed, 10) ? calc.value() : -1);
+        String nested = CalculationBenchmark.Expressions.nested(64, 256, 2L);
+        measure("evaluate/nested", i -> calc.evaluate(nested, 10) ? calc.value() : -1);
+        String binary = CalculationBenchmark.Expressions.mixed(100, 2, 3L);
+        measure("evaluate/radix2", i -> calc.evaluate(binary, 2) ? calc.value() : -1);
+        String invalid = mixed + ")";
+        measure("evaluate/invalid", i -> calc.evaluate(invalid, 10) ? calc.value() : calc.error());
+
+        char[] chars = mixed.toCharArray();
+        measure("evaluate/chars", i -> calc.evaluate(chars, 0, chars.length, 10) ? calc.value() : -1);
+        byte[] bytes = mixed.getBytes(StandardCharsets.US_ASCII);
+        measure("evaluate/bytes", i -> calc.evaluate(bytes, 0, bytes.length, 10) ? calc.value() : -1);
+        measure("feed", i -> {
+            calc.reset(10);
+            for (char c : chars) {
+                calc.feed(c);
+            }
+            return calc.finish() ? calc.value() : -1;
+        });
+
+        String[] names = {"a", "b", "c", "d"};
+        int[] values = {3, 7, 11, 13};
+        CompiledExpression formula = Calculation.compile(CalculationBenchmark.Expressions.variables(100, names, 4L),
+                10, names).orElseThrow();
+        measure("compiled/interpret", i -> calc.interpret(formula, values) ? calc.value() : -1);
+        measure("compiled/evaluate", i -> calc.evaluate(formula, values) ? calc.value() : -1);
+
+        if (!allocating.isEmpty()) {
+            System.out.println("allocating: " + String.join(", ", allocating));
+        }
+        return allocating.isEmpty();
+    }
+
+    /**
+     * warm `body` up, then print the bytes it allocates over {@link #calls} calls
+     * @param name path name
+     * @param body one call, passed a running counter
+     */
+    private void measure(String name, IntUnaryOperator body) {
+        for (int w = 0; w < warmups; w++) {
+            calls(body);
+        }
+        long least = Long.MAX_VALUE;
+        for (int r = 0; r < repeats; r++) {
+            least = Math.min(least, calls(body));
+        }
+        System.out.printf("%-28s %14d %12.3f%n", name, least, (double) least / calls);
+        if (least > 0) {
+            allocating.add(name);
+        }
+    }
+
+    /**
+     * @param body one call
+     * @return bytes the current thread allocated over {@link #calls} calls of `body`
+     */
+    private long calls(IntUnaryOperator body) {
+        int acc = 0;
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < calls; i++) {
+            acc += body.applyAsInt(i);
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+        sink += acc;
+        return allocated;
+    }
+}
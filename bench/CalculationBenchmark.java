@@ -0,0 +1,411 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * benchmark suite for the {@link Calculation} hot path
+ * <p>
+ * every benchmark runs warmup iterations and then measurement iterations of a fixed duration, and reports
+ * the mean time per operation, its spread over iterations, the bytes allocated per operation (the same number
+ * JMH's `-prof gc` gives as gc.alloc.rate.norm) and the throughput of all threads together
+ * <p>
+ * like a JMH fork, every benchmark runs in a JVM of its own, started with the JVM options of this one, so
+ * the profile, inlining and garbage left by one benchmark cannot bias the next. `-f` sets the number of JVMs
+ * per benchmark, each printing its own line; `-f 0` runs everything in this JVM
+ * <pre>
+ * java CalculationBenchmark [-f forks] [-w warmups] [-i iterations] [-ms millis] [-t threads] [filter...]
+ * </pre>
+ * a benchmark runs when its name contains one of the filters, or always when no filter is given
+ */
+public class CalculationBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * results are folded in here so the JIT cannot drop the work
+     */
+    private static volatile int sink;
+
+    private int warmups = 3;
+    private int iterations = 5;
+    private int millis = 500;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int forks = 1;
+    private final List<String> filters = new ArrayList<>();
+
+    /**
+     * name of the only benchmark to run, set in a forked JVM
+     */
+    private String only;
+
+    /**
+     * names of the selected benchmarks, collected instead of running them while non-null
+     */
+    private List<String> listed;
+
+    public static void main(String[] args) throws Exception {
+        CalculationBenchmark bench = new CalculationBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-w" -> bench.warmups = Integer.parseInt(args[++i]);
+                case "-i" -> bench.iterations = Integer.parseInt(args[++i]);
+                case "-ms" -> bench.millis = Integer.parseInt(args[++i]);
+                case "-t" -> bench.threads = Integer.parseInt(args[++i]);
+                case "-f" -> bench.forks = Integer.parseInt(args[++i]);
+                case "-b" -> bench.only = args[++i];
+                default -> bench.filters.add(args[i]);
+            }
+        }
+        if (bench.only != null) {
+            bench.benchmarks();
+            return;
+        }
+        System.out.printf("%-36s %12s %10s %12s %14s%n", "benchmark", "ns/op", "+-", "B/op", "ops/s");
+        if (bench.forks > 0) {
+            bench.fork();
+        } else {
+            bench.benchmarks();
+        }
+    }
+
+    /**
+     * run every selected benchmark in {@link #forks} JVMs of its own, one after the other
+     */
+    private void fork() throws Exception {
+        listed = new ArrayList<>();
+        benchmarks();
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), CalculationBenchmark.class.getName(),
+                "-w", String.valueOf(warmups), "-i", String.valueOf(iterations), "-ms", String.valueOf(millis),
+                "-t", String.valueOf(threads), "-b"));
+        for (String name : listed) {
+            for (int f = 0; f < forks; f++) {
+                command.add(name);
+                Process process = new ProcessBuilder(command).inheritIO().start();
+                command.remove(command.size() - 1);
+                int status = process.waitFor();
+                if (status != 0) {
+                    throw new IllegalStateException("fork of " + name + " exited with status " + status);
+                }
+            }
+        }
+    }
+
+    /**
+     * run every selected benchmark, or only list it when {@link #listed} is set
+     */
+    private void benchmarks() throws Exception {
+
+        // expression length, in tokens
+        for (int tokens : new int[]{10, 100, 1_000, 10_000, 100_000}) {
+            String expr = Expressions.mixed(tokens, 10, 1L);
+            bench("length/" + tokens, 1, evaluator(expr, 10));
+        }
+
+        // nesting depth, the same 256 tokens wrapped in more and more parentheses
+        for (int depth : new int[]{1, 16, 256, 4096}) {
+            String expr = Expressions.nested(depth, 256, 2L);
+            bench("depth/" + depth, 1, evaluator(expr, 10));
+        }
+
+        // operator mix
+        bench("mix/additive", 1, evaluator(Expressions.of(1_000, 10, "+-", 3L), 10));
+        bench("mix/multiplicative", 1, evaluator(Expressions.of(1_000, 10, "*/", 4L), 10));
+        bench("mix/mixed", 1, evaluator(Expressions.mixed(1_000, 10, 5L), 10));
+
+        // radix
+        for (int base : new int[]{2, 8, 10}) {
+            bench("radix/" + base, 1, evaluator(Expressions.mixed(1_000, base, 6L), base));
+        }
+
+        // valid against invalid input of the same length, the invalid one fails at its last character
+        String valid = Expressions.mixed(1_000, 10, 7L);
+        bench("validity/valid", 1, evaluator(valid, 10));
+        bench("validity/invalid", 1, evaluator(valid + ")", 10));
+
+        // the static entry point from one thread and from many
+        String shared = Expressions.mixed(100, 10, 8L);
+        IntUnaryOperator calculate = i -> Calculation.calculate(shared, 10).orElse(0);
+        bench("threads/1", 1, calculate);
+        if (threads > 1) {
+            bench("threads/" + threads, threads, calculate);
+        }
+
+        // parsing once and running the compiled form
+        CompiledExpression compiled = Calculation.compile(shared, 10).orElseThrow();
+        bench("compiled/100", 1, i -> compiled.evaluate().orElse(0));
+
+        // postfix interpreter against bytecode kernels, on expressions that constant folding cannot shrink
+        String[] names = {"a", "b", "c", "d"};
+        int[] values = {3, 7, 11, 13};
+        for (int tokens : new int[]{10, 100, 1_000}) {
+            CompiledExpression formula = Calculation.compile(Expressions.variables(tokens, names, 9L), 10, names)
+                    .orElseThrow();
+            Calculation calc = new Calculation();
+            bench("jit/interpreted/" + tokens, 1, i -> calc.interpret(formula, values) ? calc.value() : -1);
+            CompiledExpression.Kernel kernel = formula.toKernel().orElse(null);
+            if (kernel != null) {
+                bench("jit/kernel/" + tokens, 1, i -> (int) kernel.eval(values));
+            }
+            bench("jit/tiered/" + tokens, 1, i -> calc.evaluate(formula, values) ? calc.value() : -1);
+        }
+
+        // one expression of 100 tokens over many rows, with and without division, one op is the whole batch:
+        // a call per row against the columnar mode
+        int rows = 1 << 16;
+        int[][] columns = Expressions.columns(names.length, rows, 10L);
+        for (String mix : new String[]{"+-*", "+-*/"}) {
+            String label = mix.length() == 3 ? "/ring" : "/divide";
+            CompiledExpression formula = Calculation.compile(Expressions.variables(100, names, mix, 11L), 10, names)
+                    .orElseThrow();
+            Calculation calc = new Calculation();
+            int[] row = new int[names.length];
+            bench("columnar/rows" + label, 1, i -> {
+                int sum = 0;
+                for (int r = 0; r < rows; r++) {
+                    for (int slot = 0; slot < row.length; slot++) {
+                        row[slot] = columns[slot][r];
+                    }
+                    sum += calc.evaluate(formula, row) ? calc.value() : 0;
+                }
+                return sum;
+            });
+            bench("columnar/batch" + label, 1, i -> formula.evaluateColumns(rows, columns).validCount());
+        }
+
+        // 1024 answers written out in a radix, one op is the whole batch: a String per value against one reused
+        // buffer
+        int[] answers = new SplittableRandom(12L).ints(1024).toArray();
+        for (int base : new int[]{2, 10, 16}) {
+            bench("format/string/" + base, 1, i -> {
+                int length = 0;
+                for (int answer : answers) {
+                    length += Integer.toString(answer, base).length();
+                }
+                return length;
+            });
+            char[] buffer = new char[answers.length * (RadixFormat.maxLength(base) + 1)];
+            bench("format/buffer/" + base, 1,
+                    i -> RadixFormat.formatAll(answers, answers.length, base, false, '\n', buffer, 0));
+        }
+    }
+
+    /**
+     * @param expr original mathematical expression
+     * @param base expression radix
+     * @return benchmark body evaluating `expr` on a reused evaluator per thread
+     */
+    private static IntUnaryOperator evaluator(String expr, int base) {
+        ThreadLocal<Calculation> calc = ThreadLocal.withInitial(Calculation::new);
+        return i -> {
+            Calculation c = calc.get();
+            return c.evaluate(expr, base) ? c.value() : -1;
+        };
+    }
+
+    /**
+     * measure `body` on `threadCount` threads and print one result line
+     * @param name benchmark name
+     * @param threadCount number of threads running `body` at once
+     * @param body operation, called with a running counter
+     */
+    void bench(String name, int threadCount, IntUnaryOperator body) throws Exception {
+        if (!filters.isEmpty() && filters.stream().noneMatch(name::contains)
+                || only != null && !only.equals(name)) {
+            return;
+        }
+        if (listed != null) {
+            listed.add(name);
+            return;
+        }
+        for (int i = 0; i < warmups; i++) {
+            iteration(threadCount, body);
+        }
+        double[] nsPerOp = new double[iterations];
+        double bytes = 0;
+        double opsPerSecond = 0;
+        for (int i = 0; i < iterations; i++) {
+            Sample sample = iteration(threadCount, body);
+            nsPerOp[i] = sample.nanos * (double) threadCount / sample.ops;
+            bytes += (double) sample.bytes / sample.ops;
+            opsPerSecond += sample.ops * 1e9 / sample.nanos;
+        }
+        double mean = 0;
+        for (double v : nsPerOp) {
+            mean += v / iterations;
+        }
+        double variance = 0;
+        for (double v : nsPerOp) {
+            variance += (v - mean) * (v - mean) / Math.max(1, iterations - 1);
+        }
+        System.out.printf("%-36s %12.1f %10.1f %12.1f %14.0f%n",
+                name, mean, Math.sqrt(variance), bytes / iterations, opsPerSecond / iterations);
+    }
+
+    /**
+     * one timed iteration over all threads
+     * @param threadCount number of threads
+     * @param body operation
+     * @return operations, allocated bytes and wall time of the iteration
+     */
+    private Sample iteration(int threadCount, IntUnaryOperator body) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threadCount + 1);
+        long[] ops = new long[threadCount];
+        long[] bytes = new long[threadCount];
+        Thread[] workers = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    long deadline = System.nanoTime() + millis * 1_000_000L;
+                    long allocated = THREADS.getCurrentThreadAllocatedBytes();
+                    long count = 0;
+                    int acc = 0;
+                    // check the clock every 64 calls so it stays out of the measurement
+                    do {
+                        for (int k = 0; k < 64; k++) {
+                            acc += body.applyAsInt(k);
+                        }
+                        count += 64;
+                    } while (System.nanoTime() < deadline);
+                    bytes[id] = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+                    ops[id] = count;
+                    sink += acc;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Sample sample = new Sample();
+        sample.nanos = System.nanoTime() - begin;
+        for (int t = 0; t < threadCount; t++) {
+            sample.ops += ops[t];
+            sample.bytes += bytes[t];
+        }
+        return sample;
+    }
+
+    /**
+     * totals of one iteration
+     */
+    private static final class Sample {
+        long ops;
+        long bytes;
+        long nanos;
+    }
+
+    /**
+     * deterministic expression generators
+     */
+    static final class Expressions {
+        private Expressions() {
+        }
+
+        /**
+         * @param tokens number of numbers and operators
+         * @param base literal radix
+         * @param seed random seed
+         * @return flat expression using every operator
+         */
+        static String mixed(int tokens, int base, long seed) {
+            return of(tokens, base, "+-*/", seed);
+        }
+
+        /**
+         * @param tokens number of numbers and operators
+         * @param base literal radix
+         * @param operators operators to pick from
+         * @param seed random seed
+         * @return flat expression alternating literals and operators, never dividing by zero
+         */
+        static String of(int tokens, int base, String operators, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            StringBuilder sb = new StringBuilder();
+            literal(sb, random, base);
+            for (int i = 1; i + 1 < tokens; i += 2) {
+                sb.append(operators.charAt(random.nextInt(operators.length())));
+                literal(sb, random, base);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @param tokens number of operands and operators
+         * @param names variable names
+         * @param seed random seed
+         * @return flat decimal expression whose operands are literals and variables, with every division by a
+         *         variable, so constant folding leaves it as long as it is
+         */
+        static String variables(int tokens, String[] names, long seed) {
+            return variables(tokens, names, "+-*/", seed);
+        }
+
+        /**
+         * @param tokens number of operands and operators
+         * @param names variable names
+         * @param ops operators to pick from
+         * @param seed random seed
+         * @return flat decimal expression whose operands are literals and variables, with every division by a
+         *         variable
+         */
+        static String variables(int tokens, String[] names, String ops, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            StringBuilder sb = new StringBuilder(names[0]);
+            for (int i = 1; i + 1 < tokens; i += 2) {
+                char op = ops.charAt(random.nextInt(ops.length()));
+                sb.append(op);
+                if (op == '/' || random.nextBoolean()) {
+                    sb.append(names[random.nextInt(names.length)]);
+                } else {
+                    literal(sb, random, 10);
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @param count number of columns
+         * @param rows rows per column
+         * @param seed random seed
+         * @return variable columns of small non-zero values, one row in 1000 holding a zero
+         */
+        static int[][] columns(int count, int rows, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            int[][] columns = new int[count][rows];
+            for (int[] column : columns) {
+                for (int r = 0; r < rows; r++) {
+                    column[r] = random.nextInt(1000) == 0 ? 0 : random.nextInt(1, 100);
+                }
+            }
+            return columns;
+        }
+
+        /**
+         * @param depth parenthesis nesting
+         * @param tokens number of numbers and operators inside the parentheses
+         * @param seed random seed
+         * @return `depth` nested parentheses around a flat decimal expression
+         */
+        static String nested(int depth, int tokens, long seed) {
+            String inner = mixed(tokens, 10, seed);
+            return "(".repeat(depth) + inner + ")".repeat(depth);
+        }
+
+        private static void literal(StringBuilder sb, SplittableRandom random, int base) {
+            sb.append(Integer.toString(random.nextInt(1, base * base), base));
+        }
+    }
+}
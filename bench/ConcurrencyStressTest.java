@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * concurrency stress test for {@link Calculation#calculate(String, int)}
+ * <p>
+ * expressions from the {@link DifferentialFuzzer} generator, valid and invalid alike, are first evaluated on a
+ * single thread; then many threads, 32 by default, call `calculate` on all of them at once, every thread in its
+ * own shuffled order, and every result is compared with the single-threaded one. the threads run once without a
+ * parse cache and once sharing an {@link ExpressionCache} small enough to keep evicting, so compiled expressions
+ * and their evaluation counters are shared between threads too; with `-Dcalculation.jit.threshold=16` they are
+ * also translated to kernels while the threads run
+ * <pre>
+ * java ConcurrencyStressTest [-t threads] [-n cases] [-r rounds] [-c cache-size] [-s seed] [-m max-reports]
+ * </pre>
+ * `-c 0` skips the cached run. the exit status is 1 when a result differed or a call threw
+ */
+public class ConcurrencyStressTest {
+    private int threads = 32;
+    private int cases = 20_000;
+    private int rounds = 20;
+    private int cacheSize = 1_024;
+    private long seed = 1;
+    private int maxReports = 10;
+
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicInteger mismatches = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        ConcurrencyStressTest test = new ConcurrencyStressTest();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-t" -> test.threads = Integer.parseInt(args[++i]);
+                case "-n" -> test.cases = Integer.parseInt(args[++i]);
+                case "-r" -> test.rounds = Integer.parseInt(args[++i]);
+                case "-c" -> test.cacheSize = Integer.parseInt(args[++i]);
+                case "-s" -> test.seed = Long.parseLong(args[++i]);
+                case "-m" -> test.maxReports = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        System.exit(test.run() ? 0 : 1);
+    }
+
+    /**
+     * generate the cases, compute the expected results and run the threads without and with a cache
+     * @return true if every concurrent result matched the single-threaded one
+     */
+    private boolean run() throws Exception {
+        SplittableRandom random = new SplittableRandom(seed);
+        DifferentialFuzzer.Generator generator = new DifferentialFuzzer.Generator(random);
+        List<String> expressions = new ArrayList<>(cases);
+        int[] bases = new int[cases];
+        for (int i = 0; i < cases; i++) {
+            bases[i] = random.nextInt(4) == 0 ? new int[]{2, 8, 10, 16}[random.nextInt(4)] : random.nextInt(2, 37);
+            expressions.add(generator.next(bases[i], null).expression());
+        }
+
+        // single-threaded reference, before any other thread touches the evaluators
+        Calculation.setCache(null);
+        List<Optional<Integer>> expected = new ArrayList<>(cases);
+        int valid = 0;
+        for (int i = 0; i < cases; i++) {
+            Optional<Integer> result = Calculation.calculate(expressions.get(i), bases[i]);
+            expected.add(result);
+            valid += result.isPresent() ? 1 : 0;
+        }
+        System.out.printf("%d cases, %d valid, %d rounds on %d threads%n", cases, valid, rounds, threads);
+
+        stress("no cache", expressions, bases, expected);
+        if (cacheSize > 0) {
+            ExpressionCache cache = new ExpressionCache(cacheSize, ExpressionCache.Policy.TINY_LFU);
+            Calculation.setCache(cache);
+            try {
+                stress("shared cache", expressions, bases, expected);
+            } finally {
+                Calculation.setCache(null);
+            }
+            System.out.printf("%-14s %d hits, %d misses, %d evictions%n", "", cache.hits(), cache.misses(),
+                    cache.evictions());
+        }
+        return mismatches.get() == 0;
+    }
+
+    /**
+     * call `calculate` on every case from every thread at once and compare each result with `expected`
+     * @param name name of the run
+     * @param expressions original mathematical expressions
+     * @param bases radix of each expression
+     * @param expected single-threaded result of each expression
+     */
+    private void stress(String name, List<String> expressions, int[] bases, List<Optional<Integer>> expected)
+            throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        Thread[] workers = new Thread[threads];
+        long before = evaluations.get();
+        int mismatchesBefore = mismatches.get();
+        for (int t = 0; t < threads; t++) {
+            int[] order = shuffled(expressions.size(), new SplittableRandom(seed * 31 + t));
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                for (int round = 0; round < rounds; round++) {
+                    for (int i : order) {
+                        Optional<Integer> result;
+                        try {
+                            result = Calculation.calculate(expressions.get(i), bases[i]);
+                        } catch (RuntimeException e) {
+                            report(expressions.get(i), bases[i], expected.get(i), e.toString());
+                            continue;
+                        }
+                        if (!result.equals(expected.get(i))) {
+                            report(expressions.get(i), bases[i], expected.get(i), result.toString());
+                        }
+                    }
+                    evaluations.addAndGet(order.length);
+                }
+            }, "stress-" + t);
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        long count = evaluations.get() - before;
+        System.out.printf("%-14s %d calls in %.1f s, %.0f calls/s, %d mismatch(es)%n",
+                name, count, seconds, count / seconds, mismatches.get() - mismatchesBefore);
+    }
+
+    /**
+     * count a mismatch and print the first {@link #maxReports}
+     */
+    private void report(String expression, int base, Optional<Integer> expected, String actual) {
+        if (mismatches.incrementAndGet() <= maxReports) {
+            System.out.printf("MISMATCH on %s, radix %d: \"%s\" expected %s, got %s%n",
+                    Thread.currentThread().getName(), base, expression, expected, actual);
+        }
+    }
+
+    /**
+     * @param n number of indexes
+     * @param random source of the order
+     * @return indexes 0 to n - 1 in random order
+     */
+    private static int[] shuffled(int n, SplittableRandom random) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+}
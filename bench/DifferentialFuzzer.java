@@ -0,0 +1,1078 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * differential fuzzer for the {@link Calculation} evaluators
+ * <p>
+ * random expressions, built to hit the quirks of the original shunting-yard loop as often as plain arithmetic,
+ * are evaluated by {@link Reference}, a straight port of that loop, and by every fast path: the static entry
+ * point, the String, byte and push-style evaluators, compiled code interpreted, as a kernel and by column,
+ * {@link IncrementalCalculation}, {@link StreamCalculator} and {@link Calculation#calculateAll(List, int)}.
+ * the paths that read `0b`/`0o`/`0x` literals are checked against the reference run on
+ * {@link Reference#expand_prefixes(String, int)}, a separate statement of what a prefix means, and the
+ * checked `int`, `long` and BigInteger modes against {@link ModeReference}, the same loop on BigInteger values.
+ * a path that throws counts as a disagreement. any disagreement is shrunk to a minimal input that still
+ * disagrees and printed. with `-t` several threads fuzz at once, sharing the static evaluators and the fork-join
+ * pool. everything runs in process, a single thread checks a few million cases a minute
+ * <pre>
+ * java DifferentialFuzzer [-n cases] [-s seed] [-t threads] [-k kernel-every] [-m max-reports]
+ * </pre>
+ * the exit status is 1 when a mismatch was found
+ */
+public class DifferentialFuzzer {
+    /**
+     * cases generated together in one radix, the unit of {@link Calculation#calculateAll(List, int)}
+     */
+    private static final int ROUND = 256;
+
+    /**
+     * variable value rows per expression with variables
+     */
+    private static final int ROWS = 4;
+
+    private static final String[] NAMES = {"p", "q", "r"};
+
+    private static final String[] PATHS = {"calculate", "evaluate", "evaluate/bytes", "feed", "compiled",
+            "compiled/interpret", "kernel", "columnar", "incremental", "stream", "batch", "evaluate/prefixes",
+            "feed/prefixes", "incremental/prefixes", "mode/checked-int", "mode/long", "mode/big", "mode/big/feed",
+            "mode/big/value"};
+
+    private long cases = 1_000_000;
+    private long seed = 1;
+    private int threads = 1;
+    private int kernelEvery = 256;
+    private int maxReports = 10;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicInteger mismatches = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n" -> fuzzer.cases = Long.parseLong(args[++i]);
+                case "-s" -> fuzzer.seed = Long.parseLong(args[++i]);
+                case "-t" -> fuzzer.threads = Integer.parseInt(args[++i]);
+                case "-k" -> fuzzer.kernelEvery = Integer.parseInt(args[++i]);
+                case "-m" -> fuzzer.maxReports = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        System.exit(fuzzer.run() ? 0 : 1);
+    }
+
+    /**
+     * fuzz on every thread until {@link #cases} are checked and print the totals
+     * @return true if every path agreed with the reference on every case
+     */
+    private boolean run() throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Worker worker = new Worker(new SplittableRandom(seed + t), cases / threads + (t < cases % threads ? 1 : 0));
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%d cases, %d evaluations on %d thread(s) in %.1f s, %.0f cases/min, %d mismatch(es)%n",
+                checked.get(), evaluations.get(), threads, seconds, checked.get() * 60 / seconds, mismatches.get());
+        return mismatches.get() == 0;
+    }
+
+    /**
+     * one expression to check
+     * @param expression original mathematical expression
+     * @param base expression radix
+     * @param names declared variable names, null when identifiers are not recognized
+     * @param rows variable values, one row per evaluation, a single empty row without variables
+     */
+    record Case(String expression, int base, String[] names, int[][] rows) {
+        Case with(String other) {
+            return new Case(other, base, names, rows);
+        }
+
+        Case row(int row) {
+            return new Case(expression, base, names, new int[][]{rows[row]});
+        }
+    }
+
+    /**
+     * fuzzing thread, every evaluator it uses is its own except the static ones
+     */
+    private final class Worker {
+        private final SplittableRandom random;
+        private final long count;
+        private final Generator generator;
+        private final Reference reference = new Reference();
+        private final ModeReference modeReference = new ModeReference();
+        private final Calculation[] modes = new Calculation[Calculation.Mode.values().length];
+        private final Calculation calc = new Calculation();
+        private final IncrementalCalculation incremental = new IncrementalCalculation(10);
+        private final Calculation prefixed = new Calculation();
+        private final IncrementalCalculation incrementalPrefixed = new IncrementalCalculation(10, true);
+        private final StreamCalculator[] streams = new StreamCalculator[Character.MAX_RADIX + 1];
+        private final ByteBuffer streamIn = ByteBuffer.allocate(1 << 12);
+        private final ByteBuffer streamOut = ByteBuffer.allocate(StreamCalculator.MAX_LINE);
+        private long done;
+
+        Worker(SplittableRandom random, long count) {
+            this.random = random;
+            this.count = count;
+            generator = new Generator(random);
+            prefixed.setRadixPrefixes(true);
+            for (Calculation.Mode mode : Calculation.Mode.values()) {
+                modes[mode.ordinal()] = new Calculation();
+                modes[mode.ordinal()].setMode(mode);
+            }
+        }
+
+        void run() {
+            while (done < count) {
+                round((int) Math.min(ROUND, count - done));
+            }
+        }
+
+        /**
+         * check `n` cases sharing a radix, and whether they have variables
+         */
+        private void round(int n) {
+            int base = random.nextInt(4) == 0 ? new int[]{2, 8, 10, 16}[random.nextInt(4)] : random.nextInt(2, 37);
+            // variables need a radix where their names are not digits
+            String[] names = base <= 25 && random.nextInt(4) == 0 ? NAMES : null;
+            incremental.reset(base);
+            incrementalPrefixed.reset(base);
+            Case[] round = new Case[n];
+            List<List<Optional<Integer>>> expected = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                Case c = generator.next(base, names);
+                round[i] = c;
+                List<Optional<Integer>> rows = new ArrayList<>(c.rows.length);
+                for (int[] row : c.rows) {
+                    rows.add(reference.calculate(c.expression, base, names, row));
+                }
+                expected.add(rows);
+                check(c, rows, done + i);
+            }
+            if (names == null) {
+                List<String> expressions = new ArrayList<>(n);
+                for (Case c : round) {
+                    expressions.add(c.expression);
+                }
+                BatchResult batch = Calculation.calculateAll(expressions, base);
+                for (int i = 0; i < n; i++) {
+                    compare("batch", round[i], 0, expected.get(i).get(0), batch.get(i));
+                }
+            }
+            done += n;
+            checked.addAndGet(n);
+        }
+
+        /**
+         * evaluate `c` on every path but the batch one
+         * @param c case
+         * @param expected reference result of every row
+         * @param index case number on this thread
+         */
+        private void check(Case c, List<Optional<Integer>> expected, long index) {
+            Optional<Integer> expanded = null;
+            for (String path : PATHS) {
+                if (path.equals("batch") || path.equals("kernel") && index % kernelEvery != 0) {
+                    continue;
+                }
+                if (prefixes(path)) {
+                    if (c.names == null) {
+                        if (expanded == null) {
+                            expanded = expected(path, c, c.rows[0]);
+                        }
+                        compare(path, c, 0, expanded, attempt(path, c, c.rows[0]));
+                    }
+                    continue;
+                }
+                if (mode(path) != null) {
+                    if (c.names == null) {
+                        compare(path, c, 0, wide_expected(path, c), attempt(path, c, c.rows[0]));
+                    }
+                    continue;
+                }
+                if (path.equals("columnar")) {
+                    BatchResult columnar = columnar(c);
+                    for (int r = 0; columnar != null && r < c.rows.length; r++) {
+                        compare(path, c, r, expected.get(r), columnar.get(r));
+                    }
+                    continue;
+                }
+                for (int r = 0; r < c.rows.length; r++) {
+                    Object got = attempt(path, c, c.rows[r]);
+                    if (got != null) {
+                        compare(path, c, r, expected.get(r), got);
+                    }
+                }
+            }
+        }
+
+        private void compare(String path, Case c, int row, Object expected, Object got) {
+            evaluations.incrementAndGet();
+            if (!expected.equals(got)) {
+                report(path, c.row(row), expected, got);
+            }
+        }
+
+        /**
+         * @param path path name
+         * @param c case
+         * @param row variable values
+         * @return result of `c` on `path`, what it threw, or null if the path does not apply to the case
+         */
+        private Object attempt(String path, Case c, int[] row) {
+            try {
+                return mode(path) != null ? wide(path, c) : evaluate(path, c, row);
+            } catch (RuntimeException e) {
+                return "threw " + e;
+            }
+        }
+
+        /**
+         * @return reference result of `c` for `path` on its first row
+         */
+        private Object want(String path, Case c) {
+            return mode(path) != null ? wide_expected(path, c) : expected(path, c, c.rows[0]);
+        }
+
+        /**
+         * @return numeric mode `path` evaluates in, null for the default wrapping `int` paths
+         */
+        private static Calculation.Mode mode(String path) {
+            return switch (path) {
+                case "mode/checked-int" -> Calculation.Mode.CHECKED_INT;
+                case "mode/long" -> Calculation.Mode.LONG;
+                case "mode/big", "mode/big/feed", "mode/big/value" -> Calculation.Mode.BIG;
+                default -> null;
+            };
+        }
+
+        /**
+         * @param path numeric mode path
+         * @param c case without variables
+         * @return full precision result of `c` on `path`; on `mode/big/value`, {@link Calculation#value()}
+         */
+        private Optional<BigInteger> wide(String path, Case c) {
+            Calculation calc = modes[mode(path).ordinal()];
+            boolean valid = path.equals("mode/big/feed")
+                    ? calc.evaluate(c.expression.toCharArray(), 0, c.expression.length(), c.base)
+                    : calc.evaluate(c.expression, c.base);
+            if (!valid) {
+                return Optional.empty();
+            }
+            return Optional.of(path.equals("mode/big/value") ? BigInteger.valueOf(calc.value()) : calc.bigValue());
+        }
+
+        /**
+         * @param path numeric mode path
+         * @param c case without variables
+         * @return reference result of `c` for `path`
+         */
+        private Optional<BigInteger> wide_expected(String path, Case c) {
+            Optional<BigInteger> result = modeReference.calculate(c.expression, c.base, mode(path));
+            // value() is documented as the result truncated to int
+            return path.equals("mode/big/value") ? result.map(b -> BigInteger.valueOf(b.intValue())) : result;
+        }
+
+        /**
+         * @param path path name
+         * @param c case
+         * @param row variable values
+         * @return reference result of `c` for `path`
+         */
+        private Optional<Integer> expected(String path, Case c, int[] row) {
+            if (prefixes(path)) {
+                return reference.calculate(Reference.expand_prefixes(c.expression, c.base), c.base, null, row);
+            }
+            return reference.calculate(c.expression, c.base, c.names, row);
+        }
+
+        /**
+         * @return true if `path` reads `0b`, `0o` and `0x` literals
+         */
+        private boolean prefixes(String path) {
+            return path.endsWith("/prefixes");
+        }
+
+        /**
+         * @param path path name
+         * @param c case
+         * @param row variable values
+         * @return result of `c` on `path`, null if the path does not apply to the case
+         */
+        Optional<Integer> evaluate(String path, Case c, int[] row) {
+            String s = c.expression;
+            int base = c.base;
+            boolean variables = c.names != null;
+            switch (path) {
+                case "calculate" -> {
+                    return variables ? null : Calculation.calculate(s, base);
+                }
+                case "evaluate" -> {
+                    return variables ? null : result(calc.evaluate(new StringBuilder(s), base));
+                }
+                case "evaluate/bytes" -> {
+                    if (variables || !latin1(s)) {
+                        return null;
+                    }
+                    byte[] bytes = ("#" + s).getBytes(StandardCharsets.ISO_8859_1);
+                    return result(calc.evaluate(bytes, 1, s.length(), base));
+                }
+                case "feed" -> {
+                    if (variables) {
+                        return null;
+                    }
+                    char[] chars = ("##" + s).toCharArray();
+                    return result(calc.evaluate(chars, 2, s.length(), base));
+                }
+                case "compiled" -> {
+                    return compile(c).map(e -> e.evaluate(values(e, c.names, row))).orElse(Optional.empty());
+                }
+                case "compiled/interpret" -> {
+                    Optional<CompiledExpression> compiled = compile(c);
+                    return compiled.isPresent()
+                            ? result(calc.interpret(compiled.get(), values(compiled.get(), c.names, row)))
+                            : Optional.empty();
+                }
+                case "kernel" -> {
+                    Optional<CompiledExpression> compiled = compile(c);
+                    if (compiled.isEmpty()) {
+                        return Optional.empty();
+                    }
+                    Optional<CompiledExpression.Kernel> kernel = compiled.get().toKernel();
+                    if (kernel.isEmpty()) {
+                        return null;
+                    }
+                    long result = kernel.get().eval(values(compiled.get(), c.names, row));
+                    return CompiledExpression.Kernel.error(result) == Calculation.OK
+                            ? Optional.of(CompiledExpression.Kernel.value(result))
+                            : Optional.empty();
+                }
+                case "columnar" -> {
+                    BatchResult columnar = columnar(new Case(s, base, c.names, new int[][]{row}));
+                    return columnar == null ? Optional.empty() : columnar.get(0);
+                }
+                case "incremental" -> {
+                    if (variables) {
+                        return null;
+                    }
+                    if (incremental.base() != base) {
+                        incremental.reset(base);
+                    }
+                    // setText keeps the prefix shared with the previous case, dropping and appending the last
+                    // character again restores a checkpoint
+                    incremental.setText(s);
+                    if (!s.isEmpty()) {
+                        incremental.dropLast();
+                        incremental.append(s.charAt(s.length() - 1));
+                    }
+                    return incremental.preview();
+                }
+                case "stream" -> {
+                    if (variables || !latin1(s) || s.indexOf('\n') != -1 || s.length() >= streamIn.capacity()) {
+                        return null;
+                    }
+                    return stream(s, base);
+                }
+                case "batch" -> {
+                    return variables ? null : Calculation.calculateAll(List.of(s), base).get(0);
+                }
+                case "evaluate/prefixes" -> {
+                    if (variables) {
+                        return null;
+                    }
+                    return prefixed.evaluate(s, base) ? Optional.of(prefixed.value()) : Optional.empty();
+                }
+                case "feed/prefixes" -> {
+                    if (variables) {
+                        return null;
+                    }
+                    char[] chars = s.toCharArray();
+                    return prefixed.evaluate(chars, 0, chars.length, base) ? Optional.of(prefixed.value())
+                            : Optional.empty();
+                }
+                case "incremental/prefixes" -> {
+                    if (variables) {
+                        return null;
+                    }
+                    if (incrementalPrefixed.base() != base) {
+                        incrementalPrefixed.reset(base);
+                    }
+                    incrementalPrefixed.setText(s);
+                    if (!s.isEmpty()) {
+                        incrementalPrefixed.dropLast();
+                        incrementalPrefixed.append(s.charAt(s.length() - 1));
+                    }
+                    return incrementalPrefixed.preview();
+                }
+                default -> throw new IllegalArgumentException(path);
+            }
+        }
+
+        private Optional<Integer> result(boolean valid) {
+            return valid ? Optional.of(calc.value()) : Optional.empty();
+        }
+
+        private Optional<CompiledExpression> compile(Case c) {
+            return c.names == null ? Calculation.compile(c.expression, c.base)
+                    : Calculation.compile(c.expression, c.base, c.names);
+        }
+
+        /**
+         * @return every row of `c` evaluated by column, null if `c` does not compile
+         */
+        private BatchResult columnar(Case c) {
+            Optional<CompiledExpression> compiled = compile(c);
+            if (compiled.isEmpty()) {
+                return null;
+            }
+            CompiledExpression e = compiled.get();
+            int[][] columns = new int[e.variableCount()][c.rows.length];
+            for (int r = 0; r < c.rows.length; r++) {
+                int[] values = values(e, c.names, c.rows[r]);
+                for (int slot = 0; slot < columns.length; slot++) {
+                    columns[slot][r] = values[slot];
+                }
+            }
+            return e.evaluateColumns(c.rows.length, columns);
+        }
+
+        /**
+         * @param e compiled expression
+         * @param names variable names of `row`, null for none
+         * @param row value of every name, in name order
+         * @return values indexed by slot of `e`
+         */
+        private int[] values(CompiledExpression e, String[] names, int[] row) {
+            int[] values = new int[e.variableCount()];
+            for (int i = 0; names != null && i < names.length; i++) {
+                int slot = e.slot(names[i]);
+                if (slot >= 0) {
+                    values[slot] = row[i];
+                }
+            }
+            return values;
+        }
+
+        /**
+         * @return result line of `s` written by a {@link StreamCalculator}
+         */
+        private Optional<Integer> stream(String s, int base) {
+            StreamCalculator stream = streams[base];
+            if (stream == null) {
+                stream = streams[base] = new StreamCalculator(base);
+            }
+            streamIn.clear();
+            streamIn.put(s.getBytes(StandardCharsets.ISO_8859_1)).put((byte) '\n').flip();
+            streamOut.clear();
+            stream.process(streamIn, streamOut);
+            String line = new String(streamOut.array(), 0, streamOut.position() - 1, StandardCharsets.ISO_8859_1);
+            return line.equals("invalid") ? Optional.empty() : Optional.of(Integer.parseInt(line, base));
+        }
+
+        private boolean latin1(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) > 0xFF) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * shrink a mismatch and print it
+         */
+        private void report(String path, Case c, Object expected, Object got) {
+            if (mismatches.incrementAndGet() > maxReports) {
+                return;
+            }
+            Case minimal = shrink(path, c);
+            Object minimalExpected = want(path, minimal);
+            Object minimalGot = attempt(path, minimal, minimal.rows[0]);
+            synchronized (DifferentialFuzzer.class) {
+                System.out.printf("MISMATCH %s radix %d%s%n  original \"%s\" expected %s got %s%n",
+                        path, c.base, c.names == null ? "" : " " + Arrays.toString(c.names) + "="
+                                + Arrays.toString(c.rows[0]), escape(c.expression), expected, got);
+                if (minimal == c) {
+                    System.out.println("  does not reproduce alone, nothing to shrink");
+                } else {
+                    System.out.printf("  minimal  \"%s\" expected %s got %s%n", escape(minimal.expression),
+                            minimalExpected, minimalGot);
+                }
+            }
+        }
+
+        /**
+         * @return true if `c` still disagrees with the reference on `path`
+         */
+        private boolean fails(String path, Case c) {
+            Object got = attempt(path, c, c.rows[0]);
+            return got != null && !got.equals(want(path, c));
+        }
+
+        /**
+         * greedy delta debugging: drop ever smaller chunks of characters, then simplify the characters left, as
+         * long as the case keeps failing
+         * @param path failing path
+         * @param c failing case with a single row
+         * @return smallest failing case found, `c` itself if it does not fail when run alone
+         */
+        private Case shrink(String path, Case c) {
+            if (!fails(path, c)) {
+                return c;
+            }
+            String s = c.expression;
+            boolean progress = true;
+            while (progress) {
+                progress = false;
+                for (int size = Math.max(1, s.length() / 2); size >= 1; size >>= 1) {
+                    for (int from = 0; from + size <= s.length(); ) {
+                        String t = s.substring(0, from) + s.substring(from + size);
+                        if (fails(path, c.with(t))) {
+                            s = t;
+                            progress = true;
+                        } else {
+                            from += size;
+                        }
+                    }
+                }
+                for (int i = 0; i < s.length(); i++) {
+                    for (char simpler : new char[]{'1', '0', ' '}) {
+                        if (s.charAt(i) == simpler) {
+                            break;
+                        }
+                        String t = s.substring(0, i) + simpler + s.substring(i + 1);
+                        if (fails(path, c.with(t))) {
+                            s = t;
+                            progress = true;
+                            break;
+                        }
+                    }
+                }
+            }
+            return c.with(s);
+        }
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x20 || c > 0x7e) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * random expressions: well-formed ones from a small grammar, character soup built from the fragments the
+     * original parser treats specially, and mutants of both
+     */
+    static final class Generator {
+        /**
+         * fragments around unary minus, the single reduction before `*` and `/`, stray parentheses, skipped
+         * characters and radix prefixes
+         */
+        private static final String[] SOUP = {"-", "+", "*", "/", "(", ")", "--", "-(-", "*-", "/-", "(-", ")-",
+                " -", ")(", "()", " ", "0", "1", "0x", "0b", "0o", "0X", "x", "b", "_", "z", "１", "٣", "\t"};
+
+        private final SplittableRandom random;
+
+        Generator(SplittableRandom random) {
+            this.random = random;
+        }
+
+        /**
+         * @param base expression radix
+         * @param names declared variables, null for none
+         * @return new case, with {@link #ROWS} random value rows when there are variables
+         */
+        Case next(int base, String[] names) {
+            StringBuilder sb = new StringBuilder();
+            // mostly short, sometimes long enough to cross several incremental checkpoints
+            int budget = random.nextInt(16) == 0 ? random.nextInt(40, 200) : random.nextInt(1, 16);
+            if (random.nextInt(3) == 0) {
+                soup(sb, base, names, budget * 2);
+            } else {
+                expression(sb, base, names, budget, 0);
+            }
+            for (int m = random.nextInt(3) == 0 ? random.nextInt(1, 4) : 0; m > 0; m--) {
+                mutate(sb, base, names);
+            }
+            int[][] rows = new int[names == null ? 1 : ROWS][];
+            for (int r = 0; r < rows.length; r++) {
+                rows[r] = new int[names == null ? 0 : names.length];
+                for (int i = 0; i < rows[r].length; i++) {
+                    rows[r][i] = value();
+                }
+            }
+            return new Case(sb.toString(), base, names, rows);
+        }
+
+        /**
+         * append about `budget` tokens of a well-formed expression
+         */
+        private void expression(StringBuilder sb, int base, String[] names, int budget, int depth) {
+            operand(sb, base, names, budget, depth);
+            for (int left = budget - 1; left > 0; left -= 2) {
+                space(sb);
+                sb.append("+-*/".charAt(random.nextInt(4)));
+                space(sb);
+                operand(sb, base, names, left, depth);
+            }
+        }
+
+        private void operand(StringBuilder sb, int base, String[] names, int budget, int depth) {
+            int pick = random.nextInt(10);
+            if (pick == 0) {
+                sb.append('-');
+                operand(sb, base, names, budget, depth);
+            } else if (pick == 1 && depth < 12) {
+                sb.append('(');
+                expression(sb, base, names, random.nextInt(1, Math.max(2, budget / 2)), depth + 1);
+                sb.append(')');
+            } else if (pick == 2 && names != null) {
+                sb.append(names[random.nextInt(names.length)]);
+            } else {
+                literal(sb, base);
+            }
+        }
+
+        private void literal(StringBuilder sb, int base) {
+            switch (random.nextInt(10)) {
+                case 0 -> sb.append(Integer.toString(random.nextInt(base), base));
+                case 1 -> sb.append(Integer.toString(value() & Integer.MAX_VALUE, base));
+                case 2 -> sb.append(Long.toString(Integer.MAX_VALUE + (long) random.nextInt(-1, 3), base));
+                case 3 -> sb.append("0").append("bBoOxX".charAt(random.nextInt(6)))
+                        .append(Integer.toString(random.nextInt(1 << 12), new int[]{2, 8, 16}[random.nextInt(3)]));
+                // around the long range, and past it, for the 64-bit and BigInteger modes
+                case 4 -> sb.append(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.valueOf(random.nextInt(-1, 3)))
+                        .toString(base));
+                case 5 -> sb.append(Long.toString(random.nextLong() & Long.MAX_VALUE, base))
+                        .append(Integer.toString(random.nextInt(base), base));
+                default -> sb.append(Integer.toString(random.nextInt(1, base * base), base));
+            }
+        }
+
+        /**
+         * now and then a space, which makes a following `-` binary even after an operator
+         */
+        private void space(StringBuilder sb) {
+            if (random.nextInt(8) == 0) {
+                sb.append(' ');
+            }
+        }
+
+        /**
+         * append up to `length` characters of fragments, digits and names
+         */
+        private void soup(StringBuilder sb, int base, String[] names, int length) {
+            int end = sb.length() + length;
+            while (sb.length() < end) {
+                int pick = random.nextInt(6);
+                if (pick < 2) {
+                    sb.append(SOUP[random.nextInt(SOUP.length)]);
+                } else if (pick == 2 && names != null) {
+                    sb.append(names[random.nextInt(names.length)]);
+                } else {
+                    sb.append(Character.forDigit(random.nextInt(base), base));
+                }
+            }
+        }
+
+        /**
+         * delete, duplicate or insert one character or fragment
+         */
+        private void mutate(StringBuilder sb, int base, String[] names) {
+            int at = random.nextInt(sb.length() + 1);
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    if (at < sb.length()) {
+                        sb.deleteCharAt(at);
+                    }
+                }
+                case 1 -> {
+                    if (at < sb.length()) {
+                        sb.insert(at, sb.charAt(at));
+                    }
+                }
+                default -> {
+                    StringBuilder piece = new StringBuilder();
+                    soup(piece, base, names, 1);
+                    sb.insert(at, piece);
+                }
+            }
+        }
+
+        /**
+         * @return small value, zero or an extreme one now and then
+         */
+        private int value() {
+            return switch (random.nextInt(8)) {
+                case 0 -> 0;
+                case 1 -> new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE, -1}[random.nextInt(3)];
+                case 2 -> random.nextInt();
+                default -> random.nextInt(-100, 100);
+            };
+        }
+    }
+
+    /**
+     * the original shunting-yard loop, frozen as the definition of what an expression means: the same code on
+     * boxed stacks, with the exceptions standing for invalid input, and an instance per thread instead of
+     * static stacks. the only thing it grew is variables, which the original did not have; without names it is
+     * the original, so every path with default settings is checked against the unmodified baseline
+     */
+    static final class Reference {
+        private static final Map<Character, Integer> OP_PRIORITY = Map.of(
+                '(', 0,
+                '+', 1,
+                '-', 1,
+                '*', 2,
+                '/', 2
+        );
+
+        private final ArrayDeque<Integer> nums = new ArrayDeque<>();
+        private final ArrayDeque<Character> ops = new ArrayDeque<>();
+
+        /**
+         * @param expression original mathematical expression
+         * @param base expression radix
+         * @param names declared variables, null when letters are skipped like any unknown character
+         * @param values value of every name
+         * @return if expression is valid, return result; otherwise return Optional.empty()
+         */
+        Optional<Integer> calculate(String expression, int base, String[] names, int[] values) {
+            nums.clear();
+            ops.clear();
+
+            try {
+                for (int i = 0; i < expression.length(); i++) {
+                    char c = expression.charAt(i);
+
+                    if (is_digit(c, base)) {
+                        int j = i;
+                        while (j < expression.length() && is_digit(expression.charAt(j), base)) {
+                            j++;
+                        }
+                        int value = Integer.parseInt(expression.substring(i, j), base);
+                        nums.push(value);
+                        i = j - 1;
+                    } else if (names != null && (Character.isLetter(c) || c == '_')) {
+                        int j = i + 1;
+                        while (j < expression.length() && (Character.isLetterOrDigit(expression.charAt(j))
+                                || expression.charAt(j) == '_')) {
+                            j++;
+                        }
+                        int slot = Arrays.asList(names).indexOf(expression.substring(i, j));
+                        if (slot == -1) {
+                            return Optional.empty();
+                        }
+                        nums.push(values[slot]);
+                        i = j - 1;
+                    } else if (c == '-') {
+                        if (is_unary_minus(expression, i)) {
+                            nums.push(0);
+                            ops.push('-');
+                        } else {
+                            handle_binary_minus(c);
+                        }
+                    } else if (is_operator(c)) {
+                        if (ops.isEmpty()) {
+                            ops.push(c);
+                        } else {
+                            char prevOp = ops.peek();
+                            if (OP_PRIORITY.get(c) <= OP_PRIORITY.get(prevOp)) {
+                                int result = do_calculation(prevOp);
+                                ops.pop();
+                                nums.push(result);
+                            }
+                            ops.push(c);
+                        }
+                    } else if (c == '(') {
+                        ops.push(c);
+                    } else if (c == ')') {
+                        while (!ops.isEmpty() && ops.peek() != '(') {
+                            char op = ops.pop();
+                            int result = do_calculation(op);
+                            nums.push(result);
+                        }
+                        if (ops.isEmpty() || ops.pop() != '(') {
+                            return Optional.empty();
+                        }
+                    }
+                }
+
+                while (!ops.isEmpty() && nums.size() > 1) {
+                    char op = ops.pop();
+                    int result = do_calculation(op);
+                    nums.push(result);
+                }
+
+                if (!ops.isEmpty() || nums.size() != 1) {
+                    return Optional.empty();
+                }
+
+                return Optional.of(nums.pop());
+
+            } catch (Exception e) {
+                return Optional.empty();
+            }
+        }
+
+        /**
+         * rewrite the `0b`, `0o` and `0x` literals of `expression` into literals of `base`, which is what reading
+         * prefixes means: where a literal of `base` starts with a zero digit, followed by `b`, `o` or `x` in either
+         * case that is not a digit of `base`, followed by a digit of the radix the letter names, the literal is
+         * instead the longest run of digits of that radix after the letter. the value is written in `base` with a
+         * space after it, so a digit of `base` right after the run starts a literal of its own
+         * @param expression original mathematical expression
+         * @param base expression radix
+         * @return expression the original loop evaluates to the prefixed reading of `expression`
+         */
+        static String expand_prefixes(String expression, int base) {
+            StringBuilder sb = new StringBuilder(expression.length());
+            int n = expression.length();
+            for (int i = 0; i < n; ) {
+                char c = expression.charAt(i);
+                if (!is_digit(c, base)) {
+                    sb.append(c);
+                    i++;
+                    continue;
+                }
+                int radix = Character.digit(c, base) == 0 && i + 2 < n ? prefix_radix(expression.charAt(i + 1)) : 0;
+                if (radix != 0 && !is_digit(expression.charAt(i + 1), base)
+                        && is_digit(expression.charAt(i + 2), radix)) {
+                    int j = i + 2;
+                    while (j < n && is_digit(expression.charAt(j), radix)) {
+                        j++;
+                    }
+                    sb.append(new BigInteger(expression.substring(i + 2, j), radix).toString(base)).append(' ');
+                    i = j;
+                } else {
+                    int j = i;
+                    while (j < n && is_digit(expression.charAt(j), base)) {
+                        j++;
+                    }
+                    sb.append(expression, i, j);
+                    i = j;
+                }
+            }
+            return sb.toString();
+        }
+
+        private static int prefix_radix(char c) {
+            return switch (c) {
+                case 'b', 'B' -> 2;
+                case 'o', 'O' -> 8;
+                case 'x', 'X' -> 16;
+                default -> 0;
+            };
+        }
+
+        private void handle_binary_minus(char c) {
+            while (!ops.isEmpty()
+                    && ops.peek() != '('
+                    && OP_PRIORITY.get(c) <= OP_PRIORITY.get(ops.peek())) {
+                int result = do_calculation(ops.pop());
+                nums.push(result);
+            }
+            ops.push(c);
+        }
+
+        private int do_calculation(char op) {
+            int rhs = nums.pop();
+            int lhs = nums.pop();
+            return switch (op) {
+                case '+' -> lhs + rhs;
+                case '-' -> lhs - rhs;
+                case '*' -> lhs * rhs;
+                case '/' -> lhs / rhs;
+                // the original looked the operator up in a map and failed on the null it got for `(`
+                default -> throw new IllegalStateException("no operator " + op);
+            };
+        }
+
+        private static boolean is_unary_minus(String expr, int i) {
+            if (expr.charAt(i) != '-') {
+                return false;
+            }
+            if (i == 0) {
+                return true;
+            }
+            char prev = expr.charAt(i - 1);
+            return is_operator(prev) || prev == '(';
+        }
+
+        private static boolean is_operator(char c) {
+            return c == '+' || c == '-' || c == '*' || c == '/';
+        }
+
+        private static boolean is_digit(char c, int base) {
+            return Character.digit(c, base) != -1;
+        }
+    }
+
+    /**
+     * {@link Reference} on BigInteger values, for the numeric modes: a literal or a result outside the range of
+     * the mode makes the expression invalid, like the exceptions of the original loop
+     */
+    static final class ModeReference {
+        private static final BigInteger INT_MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+        private static final BigInteger INT_MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+        private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+        private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+        private final ArrayDeque<BigInteger> nums = new ArrayDeque<>();
+        private final ArrayDeque<Character> ops = new ArrayDeque<>();
+        private BigInteger min;
+        private BigInteger max;
+
+        /**
+         * @param expression original mathematical expression
+         * @param base expression radix
+         * @param mode numeric mode, {@link Calculation.Mode#INT} is not supported, see {@link Reference}
+         * @return if expression is valid, return result; otherwise return Optional.empty()
+         */
+        Optional<BigInteger> calculate(String expression, int base, Calculation.Mode mode) {
+            switch (mode) {
+                case CHECKED_INT -> {
+                    min = INT_MIN;
+                    max = INT_MAX;
+                }
+                case LONG -> {
+                    min = LONG_MIN;
+                    max = LONG_MAX;
+                }
+                case BIG -> {
+                    min = null;
+                    max = null;
+                }
+                default -> throw new IllegalArgumentException(mode.toString());
+            }
+            nums.clear();
+            ops.clear();
+
+            try {
+                for (int i = 0; i < expression.length(); i++) {
+                    char c = expression.charAt(i);
+
+                    if (Reference.is_digit(c, base)) {
+                        int j = i;
+                        while (j < expression.length() && Reference.is_digit(expression.charAt(j), base)) {
+                            j++;
+                        }
+                        nums.push(checked(new BigInteger(expression.substring(i, j), base)));
+                        i = j - 1;
+                    } else if (c == '-') {
+                        if (Reference.is_unary_minus(expression, i)) {
+                            nums.push(BigInteger.ZERO);
+                            ops.push('-');
+                        } else {
+                            handle_binary_minus(c);
+                        }
+                    } else if (Reference.is_operator(c)) {
+                        if (ops.isEmpty()) {
+                            ops.push(c);
+                        } else {
+                            char prevOp = ops.peek();
+                            if (Reference.OP_PRIORITY.get(c) <= Reference.OP_PRIORITY.get(prevOp)) {
+                                BigInteger result = do_calculation(prevOp);
+                                ops.pop();
+                                nums.push(result);
+                            }
+                            ops.push(c);
+                        }
+                    } else if (c == '(') {
+                        ops.push(c);
+                    } else if (c == ')') {
+                        while (!ops.isEmpty() && ops.peek() != '(') {
+                            nums.push(do_calculation(ops.pop()));
+                        }
+                        if (ops.isEmpty() || ops.pop() != '(') {
+                            return Optional.empty();
+                        }
+                    }
+                }
+
+                while (!ops.isEmpty() && nums.size() > 1) {
+                    nums.push(do_calculation(ops.pop()));
+                }
+
+                if (!ops.isEmpty() || nums.size() != 1) {
+                    return Optional.empty();
+                }
+
+                return Optional.of(nums.pop());
+
+            } catch (Exception e) {
+                return Optional.empty();
+            }
+        }
+
+        private void handle_binary_minus(char c) {
+            while (!ops.isEmpty()
+                    && ops.peek() != '('
+                    && Reference.OP_PRIORITY.get(c) <= Reference.OP_PRIORITY.get(ops.peek())) {
+                nums.push(do_calculation(ops.pop()));
+            }
+            ops.push(c);
+        }
+
+        private BigInteger do_calculation(char op) {
+            BigInteger rhs = nums.pop();
+            BigInteger lhs = nums.pop();
+            return checked(switch (op) {
+                case '+' -> lhs.add(rhs);
+                case '-' -> lhs.subtract(rhs);
+                case '*' -> lhs.multiply(rhs);
+                case '/' -> lhs.divide(rhs);
+                default -> throw new IllegalStateException("no operator " + op);
+            });
+        }
+
+        /**
+         * @return `n`, if it is in the range of the mode
+         * @throws ArithmeticException if it is not
+         */
+        private BigInteger checked(BigInteger n) {
+            if (max != null && (n.compareTo(min) < 0 || n.compareTo(max) > 0)) {
+                throw new ArithmeticException("out of range");
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * load generator for {@link CalculationServer}
+ * <p>
+ * every connection sends its requests in pipelined batches and waits for the whole batch to be answered before
+ * sending the next, a request's latency runs from the write of its batch to the read of its response line.
+ * reports latency percentiles and requests per second over all connections. without `-p` a server is started
+ * in this process on a free port, so the whole run stays on localhost
+ * <pre>
+ * java LoadGenerator [-p port] [-c connections] [-n requests] [-d depth] [-r radix] [-e expression]
+ * </pre>
+ */
+public class LoadGenerator {
+    private int port;
+    private int connections = 4;
+    private int requests = 100_000;
+    private int depth = 16;
+    private int base = 10;
+    private String expression;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator load = new LoadGenerator();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-p" -> load.port = Integer.parseInt(args[++i]);
+                case "-c" -> load.connections = Integer.parseInt(args[++i]);
+                case "-n" -> load.requests = Integer.parseInt(args[++i]);
+                case "-d" -> load.depth = Integer.parseInt(args[++i]);
+                case "-r" -> load.base = Integer.parseInt(args[++i]);
+                case "-e" -> load.expression = args[++i];
+                default -> {
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        if (load.expression == null) {
+            load.expression = CalculationBenchmark.Expressions.mixed(21, load.base, 1L);
+        }
+        if (load.port != 0) {
+            load.run(load.port);
+        } else {
+            try (CalculationServer server = new CalculationServer(load.base, 0)) {
+                server.start();
+                load.run(server.port());
+            }
+        }
+    }
+
+    /**
+     * run the load against `serverPort` and print the report
+     * @param serverPort server port on the loopback interface
+     */
+    private void run(int serverPort) throws Exception {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), serverPort);
+        int perConnection = requests / connections;
+        long[][] latencies = new long[connections][perConnection];
+        CyclicBarrier start = new CyclicBarrier(connections + 1);
+        Thread[] clients = new Thread[connections];
+        for (int c = 0; c < connections; c++) {
+            long[] latency = latencies[c];
+            clients[c] = new Thread(() -> {
+                try (SocketChannel channel = SocketChannel.open(address)) {
+                    start.await();
+                    client(channel, latency);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            clients[c].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread client : clients) {
+            client.join();
+        }
+        long nanos = System.nanoTime() - begin;
+
+        long[] all = new long[perConnection * connections];
+        for (int c = 0; c < connections; c++) {
+            System.arraycopy(latencies[c], 0, all, c * perConnection, perConnection);
+        }
+        Arrays.sort(all);
+        System.out.printf("%d requests, %d connections, pipeline depth %d%n", all.length, connections, depth);
+        System.out.printf("%-10s %12s%n", "p50", micros(all, 0.50));
+        System.out.printf("%-10s %12s%n", "p90", micros(all, 0.90));
+        System.out.printf("%-10s %12s%n", "p99", micros(all, 0.99));
+        System.out.printf("%-10s %12s%n", "p99.9", micros(all, 0.999));
+        System.out.printf("%-10s %12s%n", "max", micros(all, 1.0));
+        System.out.printf("%-10s %12.0f%n", "req/s", all.length * 1e9 / nanos);
+    }
+
+    /**
+     * send `latency.length` requests in batches of {@link #depth} and record each request's latency
+     * @param channel connection
+     * @param latency request latencies in nanoseconds, filled in
+     */
+    private void client(SocketChannel channel, long[] latency) throws IOException {
+        byte[] line = (expression + "\n").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer batch = ByteBuffer.allocateDirect(line.length * depth);
+        ByteBuffer responses = ByteBuffer.allocateDirect(1 << 16);
+        for (int sent = 0; sent < latency.length; ) {
+            int count = Math.min(depth, latency.length - sent);
+            batch.clear();
+            for (int i = 0; i < count; i++) {
+                batch.put(line);
+            }
+            batch.flip();
+            long begin = System.nanoTime();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            // every newline read answers the oldest request of the batch
+            int answered = 0;
+            while (answered < count) {
+                if (channel.read(responses) == -1) {
+                    throw new IOException("server closed the connection");
+                }
+                responses.flip();
+                long now = System.nanoTime();
+                while (responses.hasRemaining()) {
+                    if (responses.get() == '\n') {
+                        latency[sent + answered++] = now - begin;
+                    }
+                }
+                responses.clear();
+            }
+            sent += count;
+        }
+    }
+
+    /**
+     * @param sorted sorted latencies in nanoseconds
+     * @param quantile quantile between 0 and 1
+     * @return latency at `quantile` in microseconds
+     */
+    private static String micros(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int i = Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1);
+        return String.format("%.1f us", sorted[Math.max(i, 0)] / 1e3);
+    }
+}
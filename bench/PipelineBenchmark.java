@@ -0,0 +1,196 @@
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * sustained throughput and latency of an {@link EvaluationProcessor} between an in-process publisher and
+ * subscriber
+ * <p>
+ * a {@link SubmissionPublisher} feeds requests as fast as backpressure lets it, or at a fixed rate with `-r`, and
+ * the subscriber asks for results in chunks, optionally spending `-d` nanoseconds on each to play a slow
+ * consumer. a request's latency runs from its submission to the delivery of its result. reports latency
+ * percentiles, results per second, the most requests the processor held at once and any result out of order
+ * <pre>
+ * java PipelineBenchmark [-n requests] [-p parallelism] [-b batch] [-c capacity] [-t tokens] [-r rate] [-d delay]
+ * </pre>
+ */
+public class PipelineBenchmark {
+    /**
+     * results the subscriber asks for at a time
+     */
+    private static final int CHUNK = 256;
+
+    private int requests = 1_000_000;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int batch = EvaluationProcessor.DEFAULT_MAX_BATCH;
+    private int capacity = EvaluationProcessor.DEFAULT_CAPACITY;
+    private int tokens = 21;
+    private long rate;
+    private long delay;
+
+    public static void main(String[] args) throws Exception {
+        PipelineBenchmark bench = new PipelineBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n" -> bench.requests = Integer.parseInt(args[++i]);
+                case "-p" -> bench.parallelism = Integer.parseInt(args[++i]);
+                case "-b" -> bench.batch = Integer.parseInt(args[++i]);
+                case "-c" -> bench.capacity = Integer.parseInt(args[++i]);
+                case "-t" -> bench.tokens = Integer.parseInt(args[++i]);
+                case "-r" -> bench.rate = Long.parseLong(args[++i]);
+                case "-d" -> bench.delay = Long.parseLong(args[++i]);
+                default -> {
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        // a short run first, so the measured one sees compiled code
+        int measured = bench.requests;
+        bench.requests = Math.min(measured, 100_000);
+        bench.run(false);
+        bench.requests = measured;
+        bench.run(true);
+    }
+
+    /**
+     * push {@link #requests} requests through a new processor
+     * @param report true to print the results
+     */
+    private void run(boolean report) throws Exception {
+        String[] expressions = new String[64];
+        for (int i = 0; i < expressions.length; i++) {
+            expressions[i] = CalculationBenchmark.Expressions.mixed(tokens, 10, i);
+        }
+        long[] sent = new long[requests];
+        long[] latency = new long[requests];
+        EvaluationProcessor processor = new EvaluationProcessor(ForkJoinPool.commonPool(), parallelism, batch,
+                capacity);
+        Sink sink = new Sink(processor, sent, latency);
+        processor.subscribe(sink);
+
+        ExecutorService delivery = Executors.newSingleThreadExecutor();
+        long begin;
+        try (SubmissionPublisher<ExpressionRequest> publisher = new SubmissionPublisher<>(delivery, CHUNK)) {
+            publisher.subscribe(processor);
+            begin = System.nanoTime();
+            long interval = rate > 0 ? 1_000_000_000L / rate : 0;
+            for (int i = 0; i < requests; i++) {
+                if (interval > 0) {
+                    long due = begin + i * interval;
+                    while (System.nanoTime() < due) {
+                        Thread.onSpinWait();
+                    }
+                }
+                sent[i] = System.nanoTime();
+                // blocks while the publisher's buffer is full, which is the processor's backpressure
+                publisher.submit(new ExpressionRequest(i, expressions[i & (expressions.length - 1)], 10));
+            }
+        }
+        sink.done.await();
+        long nanos = sink.last - begin;
+        delivery.shutdown();
+        if (!report) {
+            return;
+        }
+
+        Arrays.sort(latency);
+        System.out.printf("%d requests of %d tokens, parallelism %d, batch %d, capacity %d, rate %s, delay %d ns%n",
+                requests, tokens, parallelism, batch, capacity, rate > 0 ? rate + "/s" : "unbounded", delay);
+        System.out.printf("%-10s %12s%n", "p50", micros(latency, 0.50));
+        System.out.printf("%-10s %12s%n", "p90", micros(latency, 0.90));
+        System.out.printf("%-10s %12s%n", "p99", micros(latency, 0.99));
+        System.out.printf("%-10s %12s%n", "p99.9", micros(latency, 0.999));
+        System.out.printf("%-10s %12s%n", "max", micros(latency, 1.0));
+        System.out.printf("%-10s %12.0f%n", "req/s", requests * 1e9 / nanos);
+        System.out.printf("%-10s %12d%n", "in flight", sink.maxInFlight);
+        System.out.printf("%-10s %12d%n", "invalid", sink.invalid);
+        System.out.printf("%-10s %12d%n", "reordered", sink.reordered);
+        if (sink.error != null) {
+            System.out.println("failed: " + sink.error);
+        }
+    }
+
+    /**
+     * @param sorted sorted latencies in nanoseconds
+     * @param quantile quantile between 0 and 1
+     * @return latency at `quantile` in microseconds
+     */
+    private static String micros(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int i = Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1);
+        return String.format("%.1f us", sorted[Math.max(i, 0)] / 1e3);
+    }
+
+    /**
+     * subscriber recording the latency of every result
+     */
+    private final class Sink implements Flow.Subscriber<EvaluationResult> {
+        private final EvaluationProcessor processor;
+        private final long[] sent;
+        private final long[] latency;
+        final CountDownLatch done = new CountDownLatch(1);
+        private Flow.Subscription subscription;
+        private long expected;
+        private int outstanding;
+        long maxInFlight;
+        long reordered;
+        long invalid;
+        long last;
+        Throwable error;
+
+        Sink(EvaluationProcessor processor, long[] sent, long[] latency) {
+            this.processor = processor;
+            this.sent = sent;
+            this.latency = latency;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            outstanding = CHUNK;
+            s.request(CHUNK);
+        }
+
+        @Override
+        public void onNext(EvaluationResult result) {
+            int id = (int) result.request().id();
+            latency[id] = System.nanoTime() - sent[id];
+            if (id != expected) {
+                reordered++;
+            }
+            expected = id + 1;
+            if (!result.isValid()) {
+                invalid++;
+            }
+            maxInFlight = Math.max(maxInFlight, processor.inFlight());
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            if (--outstanding == 0) {
+                outstanding = CHUNK;
+                subscription.request(CHUNK);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            last = System.nanoTime();
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            last = System.nanoTime();
+            done.countDown();
+        }
+    }
+}
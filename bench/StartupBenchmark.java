@@ -0,0 +1,118 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * time from launching a calculator process to its first painted frame, with and without class data sharing
+ * <p>
+ * every run starts a new JVM with `-Dcalculator.startup.probe=true`, which prints a line after the first paint
+ * and exits, and times the launch to that line. the configurations are no sharing (`-Xshare:off`), the JDK's
+ * default archive, and the AppCDS archive built by `bench/appcds.sh` when it exists. runs of the configurations
+ * alternate, so a change of machine load hits them alike. needs a display
+ * <pre>
+ * java -cp out StartupBenchmark [-n runs] [-j jar] [-a archive] [-w warmup]
+ * </pre>
+ */
+public class StartupBenchmark {
+    private int runs = 20;
+    private int warmup = 2;
+    private Path jar = Path.of("out", "calculator.jar");
+    private Path archive = Path.of("out", "calculator.jsa");
+
+    public static void main(String[] args) throws Exception {
+        StartupBenchmark bench = new StartupBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n" -> bench.runs = Integer.parseInt(args[++i]);
+                case "-w" -> bench.warmup = Integer.parseInt(args[++i]);
+                case "-j" -> bench.jar = Path.of(args[++i]);
+                case "-a" -> bench.archive = Path.of(args[++i]);
+                default -> {
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        if (!Files.isRegularFile(bench.jar)) {
+            System.err.println(bench.jar + " not found, build it with bench/appcds.sh");
+            System.exit(2);
+        }
+        bench.run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        List<String> names = new ArrayList<>(List.of("no sharing", "JDK archive"));
+        List<String> options = new ArrayList<>(List.of("-Xshare:off", "-Xshare:auto"));
+        if (Files.isRegularFile(archive)) {
+            names.add("AppCDS");
+            options.add("-XX:SharedArchiveFile=" + archive);
+        } else {
+            System.out.println(archive + " not found, AppCDS skipped");
+        }
+
+        long[][] millis = new long[names.size()][runs];
+        for (int run = -warmup; run < runs; run++) {
+            // the first runs fill the page cache and are not counted
+            for (int k = 0; k < names.size(); k++) {
+                long t = launch(options.get(k));
+                if (run >= 0) {
+                    millis[k][run] = t;
+                }
+            }
+        }
+
+        System.out.printf("%d runs of %s, time to first paint%n", runs, jar);
+        System.out.printf("%-12s %10s %10s %10s %10s%n", "", "min", "p50", "p90", "max");
+        for (int k = 0; k < names.size(); k++) {
+            Arrays.sort(millis[k]);
+            System.out.printf("%-12s %10s %10s %10s %10s%n", names.get(k), millis(millis[k], 0.0),
+                    millis(millis[k], 0.50), millis(millis[k], 0.90), millis(millis[k], 1.0));
+        }
+    }
+
+    /**
+     * start a calculator and wait for its first paint
+     * @param sharing class data sharing option
+     * @return milliseconds from the launch to the first paint
+     */
+    private long launch(String sharing) throws IOException, InterruptedException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, sharing, "-Dcalculator.startup.probe=true",
+                "-Dcalculator.history=", "-jar", jar.toString());
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        long begin = System.nanoTime();
+        Process process = builder.start();
+        String line;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            while ((line = out.readLine()) != null && !line.equals("first paint")) {
+                // skip anything printed before the frame
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        int status = process.waitFor();
+        if (line == null) {
+            throw new IllegalStateException("calculator exited with status " + status + " before its first paint");
+        }
+        return nanos / 1_000_000;
+    }
+
+    /**
+     * @param sorted sorted times in milliseconds
+     * @param quantile quantile between 0 and 1
+     * @return time at `quantile`
+     */
+    private static String millis(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int i = Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(i, 0)] + " ms";
+    }
+}
@@ -0,0 +1,26 @@
+#!/bin/sh
+# package the calculator as out/calculator.jar and build an AppCDS archive, out/calculator.jsa, of every class
+# a start up to the first paint loads, JDK and calculator classes alike
+#
+#   bench/appcds.sh [java options of the training run]
+#   java -XX:SharedArchiveFile=out/calculator.jsa -jar out/calculator.jar
+#
+# the archive only maps with the same JDK and the same jar path, rebuild it after either changes. the training
+# run opens a window, so it needs a display
+set -e
+cd "$(dirname "$0")/.."
+OUT=out
+
+rm -rf "$OUT/classes"
+mkdir -p "$OUT/classes"
+javac -encoding UTF-8 -d "$OUT/classes" src/*.java
+jar --create --file "$OUT/calculator.jar" --main-class Calculator -C "$OUT/classes" .
+
+# training run: paint the first frame and exit, listing the classes it loaded
+java -XX:DumpLoadedClassList="$OUT/calculator.classlist" -Dcalculator.startup.probe=true -Dcalculator.history= \
+    "$@" -jar "$OUT/calculator.jar" > /dev/null
+
+# static archive of the listed classes, on the class path the calculator runs with
+java -Xshare:dump -XX:SharedClassListFile="$OUT/calculator.classlist" -XX:SharedArchiveFile="$OUT/calculator.jsa" \
+    -cp "$OUT/calculator.jar"
+echo "$OUT/calculator.jsa: $(wc -l < "$OUT/calculator.classlist") classes"
@@ -0,0 +1,78 @@
+import java.util.Optional;
+
+/**
+ * results of {@link Calculation#calculateAll(String[], int)} and {@link CompiledExpression#evaluateColumns(int,
+ * int[]...)}, a primitive value array plus a validity bitmap
+ */
+public final class BatchResult {
+    /**
+     * result of every expression, 0 where the expression is invalid
+     */
+    final int[] values;
+
+    /**
+     * validity bitmap, bit `i % 64` of word `i / 64` is set when expression `i` is valid
+     */
+    final long[] valid;
+
+    BatchResult(int size) {
+        values = new int[size];
+        valid = new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * @return number of expressions
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @param i expression index
+     * @return true - expression `i` is valid; false - expression `i` is invalid
+     */
+    public boolean isValid(int i) {
+        return (valid[i >>> 6] & 1L << i) != 0;
+    }
+
+    /**
+     * @param i expression index
+     * @return result of expression `i`, 0 when it is invalid
+     */
+    public int value(int i) {
+        return values[i];
+    }
+
+    /**
+     * @param i expression index
+     * @return if expression `i` is valid, return result; otherwise return Optional.empty()
+     */
+    public Optional<Integer> get(int i) {
+        return isValid(i) ? Optional.of(values[i]) : Optional.empty();
+    }
+
+    /**
+     * @return number of valid expressions
+     */
+    public int validCount() {
+        int count = 0;
+        for (long word : valid) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return result array, shared with this object
+     */
+    public int[] values() {
+        return values;
+    }
+
+    /**
+     * @return validity bitmap, shared with this object
+     */
+    public long[] validity() {
+        return valid;
+    }
+}
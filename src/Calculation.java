@@ -1,39 +1,357 @@
-import java.util.Map;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
-import java.util.Stack;
-import java.util.function.BiFunction;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * expression evaluator built on primitive `long[]`/`char[]` stacks
+ * <p>
+ * an instance reuses its stacks between calls, so evaluating through {@link #evaluate(CharSequence, int)}
+ * allocates nothing once the stacks have grown to fit; an instance is not thread-safe, keep one per thread.
+ * invalid input is detected by the parser itself, without exceptions, and the instance keeps the reason in
+ * {@link #error()} and where it was found in {@link #position()}. an instance made cancellable with
+ * {@link #setCancellable(boolean)} stops a long evaluation within a thousand characters of its thread being
+ * interrupted, with {@link #CANCELLED} and the interrupt status left set.
+ * <p>
+ * input is bounded by a maximum length, parenthesis nesting and token count, see {@link #setLengthLimit(int)};
+ * the stacks never hold more entries than the token limit, so a hostile expression is rejected as soon as it
+ * crosses a limit and costs no more memory than the limits allow
+ * <p>
+ * arithmetic follows {@link #setMode(Mode)}: wrapping `int` by default, or checked `int`, checked `long`, or
+ * `long` that promotes to {@link BigInteger} only for the values that overflow
+ * <p>
+ * `0b`, `0o` and `0x` literals are read only by an instance that opted in with {@link #setRadixPrefixes(boolean)};
+ * the static entry points and compiled expressions keep the original reading, where the letter is skipped
+ */
 public class Calculation {
+    public static final int OK = 0;                     // expression is valid
+    public static final int MISSING_OPERAND = 1;        // an operator has nothing to apply to, or the input is empty
+    public static final int MISSING_OPERATOR = 2;       // two operands follow each other
+    public static final int UNBALANCED_PARENTHESIS = 3; // `)` without `(`, or `(` never closed
+    public static final int DIVISION_BY_ZERO = 4;       // divisor is zero
+    public static final int NUMBER_TOO_LARGE = 5;       // literal does not fit in the numeric mode
+    public static final int UNKNOWN_VARIABLE = 6;       // identifier is not a declared variable
+    public static final int OVERFLOW = 7;               // result does not fit in the numeric mode
+    public static final int CANCELLED = 8;              // the evaluating thread was interrupted
+    public static final int UNKNOWN_ERROR = 9;          // invalid, the reason was not kept
+    public static final int TOO_LONG = 10;              // expression is longer than the length limit
+    public static final int TOO_DEEP = 11;              // parentheses are nested deeper than the depth limit
+    public static final int TOO_MANY_TOKENS = 12;       // expression has more tokens than the token limit
+
     /**
-     * operator priority definition
+     * error descriptions, indexed by error code
+     */
+    private static final String[] ERROR_MESSAGES = {
+            "ok",
+            "missing operand",
+            "missing operator",
+            "unbalanced parenthesis",
+            "division by zero",
+            "number too large",
+            "unknown variable",
+            "arithmetic overflow",
+            "cancelled",
+            "unknown error",
+            "expression too long",
+            "nesting too deep",
+            "too many tokens"
+    };
+
+    /**
+     * number of error codes
+     */
+    static final int ERROR_CODES = ERROR_MESSAGES.length;
+
+    /**
+     * default length limit in characters, `-Dcalculation.max.length`
+     */
+    static final int DEFAULT_MAX_LENGTH = Integer.getInteger("calculation.max.length", 1 << 20);
+
+    /**
+     * default parenthesis nesting limit, `-Dcalculation.max.depth`
+     */
+    static final int DEFAULT_MAX_DEPTH = Integer.getInteger("calculation.max.depth", 1 << 13);
+
+    /**
+     * default token limit, `-Dcalculation.max.tokens`
+     */
+    static final int DEFAULT_MAX_TOKENS = Integer.getInteger("calculation.max.tokens", 1 << 19);
+
+    /**
+     * numeric mode
+     */
+    public enum Mode {
+        INT,            // 32-bit, wraps on overflow like Java int arithmetic
+        CHECKED_INT,    // 32-bit, overflow is an error
+        LONG,           // 64-bit, overflow is an error
+        BIG             // 64-bit, values that overflow are promoted to BigInteger
+    }
+
+    /**
+     * per-thread evaluator used by {@link #calculate(String, int)}
+     */
+    private static final ThreadLocal<Calculation> LOCAL = ThreadLocal.withInitial(Calculation::new);
+
+    /**
+     * variable names of an expression without variables
+     */
+    private static final String[] NO_VARIABLES = {};
+
+    /**
+     * variable values of an expression without variables
+     */
+    private static final int[] NO_VALUES = {};
+
+    /**
+     * parse cache consulted by {@link #calculate(String, int)}, null when disabled
+     */
+    private static volatile ExpressionCache cache;
+
+    /**
+     * batch slice evaluated by one fork-join task without splitting further, a multiple of 64
+     */
+    private static final int BATCH_SLICE = 4096;
+
+    /**
+     * characters scanned between checks of the thread's interrupt status, a power of two
+     */
+    private static final int CANCEL_POLL = 1024;
+
+    /**
+     * digit value of every ASCII character for every radix up to 36, -1 for non-digits and unsupported radixes
+     */
+    private static final byte[][] DIGITS = new byte[Character.MAX_RADIX + 1][128];
+
+    /**
+     * 1 for every ASCII character that pushes onto the operator stack, operators and `(`
+     */
+    private static final byte[] STACK_ENTRY = new byte[128];
+
+    /**
+     * change of parenthesis nesting of every ASCII character
+     */
+    private static final byte[] NESTING = new byte[128];
+
+    static {
+        for (char c : new char[]{'+', '-', '*', '/', '('}) {
+            STACK_ENTRY[c] = 1;
+        }
+        NESTING['('] = 1;
+        NESTING[')'] = -1;
+        for (int base = 0; base < DIGITS.length; base++) {
+            for (char c = 0; c < 128; c++) {
+                DIGITS[base][c] = (byte) Character.digit(c, base);
+            }
+        }
+    }
+
+    /**
+     * number stack, holds `int` values in the 32-bit modes
+     */
+    private long[] nums = new long[16];
+
+    /**
+     * promoted numbers in {@link Mode#BIG}, parallel to {@link #nums} and always as long; null until the first
+     * promotion, and a slot is null while its number fits in {@link #nums}
      */
-    private static final Map<Character, Integer> OP_PRIORITY = Map.of(
-            '(', 0,
-            '+', 1,
-            '-', 1,
-            '*', 2,
-            '/', 2
-    );
+    private BigInteger[] bigs;
 
     /**
-     * operator function
+     * number stack of compiled expressions
      */
-    private static final Map<Character, BiFunction<Integer, Integer, Integer>> OP_FUNC = Map.of(
-            '+', Integer::sum,
-            '-', (a, b) -> a - b,
-            '*', (a, b) -> a * b,
-            '/', (a, b) -> a / b
-    );
+    private int[] frame = new int[16];
 
     /**
-     * number stack
+     * numeric mode
      */
-    private static final Stack<Integer> nums = new Stack<>();
+    private Mode mode = Mode.INT;
+
+    /**
+     * largest literal of {@link #mode}
+     */
+    private long literalLimit = Integer.MAX_VALUE;
+
+    /**
+     * number stack size
+     */
+    private int numTop;
 
     /**
      * operator stack
      */
-    private static final Stack<Character> ops = new Stack<>();
+    private char[] ops = new char[16];
+
+    /**
+     * operator stack size
+     */
+    private int opTop;
+
+    /**
+     * true if a `0b`, `0o` or `0x` prefix opens a literal in its own radix, false to skip the letter as before
+     */
+    private boolean radixPrefixes;
+
+    /**
+     * true if string and character evaluation polls the thread's interrupt status
+     */
+    private boolean cancellable;
+
+    /**
+     * longest expression accepted, in characters
+     */
+    private int lengthLimit = DEFAULT_MAX_LENGTH;
+
+    /**
+     * deepest parenthesis nesting accepted
+     */
+    private int depthLimit = DEFAULT_MAX_DEPTH;
+
+    /**
+     * most tokens accepted
+     */
+    private int tokenLimit = DEFAULT_MAX_TOKENS;
+
+    /**
+     * parentheses open at the current position
+     */
+    private int nesting;
+
+    /**
+     * result of the last successful evaluation
+     */
+    private long value;
+
+    /**
+     * result of the last successful evaluation when it was promoted, null otherwise
+     */
+    private BigInteger bigValue;
+
+    /**
+     * error code of the last evaluation, {@link #OK} when it was valid
+     */
+    private int error;
+
+    /**
+     * literals, variables, operators and parentheses read by the last evaluation
+     */
+    private int tokens;
+
+    /**
+     * character index where the last evaluation failed, -1 when it was valid or the index is unknown
+     */
+    private int position = -1;
+
+    /**
+     * expression being scanned until {@link #reserve()} has sized the stacks for it, null otherwise
+     */
+    private CharSequence source;
+
+    /**
+     * true while {@link #compile(String, int)} is scanning, reductions are emitted instead of computed
+     */
+    private boolean compiling;
+
+    /**
+     * postfix code emitted while compiling
+     */
+    private int[] code = new int[32];
+
+    /**
+     * emitted code length
+     */
+    private int codeLen;
+
+    /**
+     * deepest number stack seen while compiling
+     */
+    private int maxDepth;
+
+    /**
+     * variable names accepted while compiling, null when identifiers are not recognized
+     */
+    private String[] variables;
+
+    /**
+     * radix of the expression being fed
+     */
+    private int feedBase;
+
+    /**
+     * digit table of {@link #feedBase}
+     */
+    private byte[] feedDigits;
+
+    /**
+     * {@link #literal_cutoff(int)} of {@link #feedBase}
+     */
+    private long feedCutoff;
+
+    /**
+     * radix of the literal being accumulated, {@link #feedBase} unless a `0b`, `0o` or `0x` prefix opened it
+     */
+    private int feedRadix;
+
+    /**
+     * digit table of {@link #feedRadix}
+     */
+    private byte[] feedRadixDigits;
+
+    /**
+     * {@link #literal_cutoff(int)} of {@link #feedRadix}
+     */
+    private long feedRadixCutoff;
+
+    /**
+     * radix named by the letter fed right after a literal `0`, 0 if there is none; the next character decides
+     * whether it prefixes a literal or the `0` stands alone
+     */
+    private int feedPrefix;
+
+    /**
+     * number of characters fed so far
+     */
+    private long feedIndex;
+
+    /**
+     * previous character fed
+     */
+    private char feedPrev;
+
+    /**
+     * literal being accumulated, -1 between literals
+     */
+    private long feedNumber = -1;
+
+    /**
+     * literal being accumulated once it overflowed {@link #feedNumber} in {@link Mode#BIG}, null otherwise
+     */
+    private BigInteger feedBig;
+
+    /**
+     * index of the first digit of the literal being accumulated
+     */
+    private long feedStart;
+
+    /**
+     * true once the expression being fed is known to be invalid
+     */
+    private boolean feedFailed;
+
+    /**
+     * operator priority definition
+     * @param op operator character or `(`
+     * @return operator priority
+     */
+    private static int priority(char op) {
+        return switch (op) {
+            case '+', '-' -> 1;
+            case '*', '/' -> 2;
+            default -> 0;
+        };
+    }
 
     /**
      * clarify the unary minus operator
@@ -41,7 +359,7 @@ public class Calculation {
      * @param i `-` position
      * @return true - unary minus; false - binary minus
      */
-    private static boolean is_unary_minus(String expr, int i) {
+    private static boolean is_unary_minus(CharSequence expr, int i) {
         if (expr.charAt(i) != '-') {
             return false;
         }
@@ -58,15 +376,18 @@ public class Calculation {
     /**
      * handle binary minus
      * @param c binary operator
+     * @return false if an operand is missing or a division by zero happens
      */
-    private static void handle_binary_minus(char c) {
-        while (!ops.isEmpty()
-                && ops.peek() != '('
-                && OP_PRIORITY.get(c) <= OP_PRIORITY.get(ops.peek())) {
-            int result = do_calculation(ops.pop());
-            nums.push(result);
+    private boolean handle_binary_minus(char c) {
+        while (opTop != 0
+                && ops[opTop - 1] != '('
+                && priority(c) <= priority(ops[opTop - 1])) {
+            if (!do_calculation(ops[--opTop])) {
+                return false;
+            }
         }
-        ops.push(c);
+        push_op(c);
+        return true;
     }
 
     /**
@@ -76,99 +397,1275 @@ public class Calculation {
      * @return if expression is valid, return result; otherwise return Optional.empty()
      */
     public static Optional<Integer> calculate(String expression, int base) {
-        nums.clear();
-        ops.clear();
+        Calculation calc = LOCAL.get();
+        if (CalculationMetrics.enabled) {
+            return calc.calculate_measured(expression, base);
+        }
+        return calc.evaluate_cached(expression, base) ? Optional.of(calc.value()) : Optional.empty();
+    }
 
-        try {
-            for (int i = 0; i < expression.length(); i++) {
-                char c = expression.charAt(i);
+    /**
+     * {@link #calculate(String, int)} reporting to {@link CalculationMetrics}
+     */
+    private Optional<Integer> calculate_measured(String expression, int base) {
+        long start = System.nanoTime();
+        boolean valid = evaluate_cached(expression, base);
+        long nanos = System.nanoTime() - start;
+        CalculationMetrics.report(expression.length(), tokens, valid ? OK : error, nanos);
+        return valid ? Optional.of(value()) : Optional.empty();
+    }
 
-                if (is_digit(c, base)) {
-                    int j = i;
-                    while (j < expression.length() && is_digit(expression.charAt(j), base)) {
-                        j++;
-                    }
-                    int value = Integer.parseInt(expression.substring(i, j), base);
-                    nums.push(value);
-                    i = j - 1;
-                } else if (c == '-') {
-                    if (is_unary_minus(expression, i)) {
-                        nums.push(0);
-                        ops.push('-');
-                    } else {
-                        handle_binary_minus(c);
-                    }
-                } else if (is_operator(c)) {
-                    if (ops.isEmpty()) {
-                        ops.push(c);
-                    } else {
-                        char prevOp = ops.peek();
-                        if (OP_PRIORITY.get(c) <= OP_PRIORITY.get(prevOp)) {
-                            int result = do_calculation(prevOp);
-                            ops.pop();
-                            nums.push(result);
-                        }
-                        ops.push(c);
-                    }
-                } else if (c == '(') {
-                    ops.push(c);
-                } else if (c == ')') {
-                    while (!ops.isEmpty() && ops.peek() != '(') {
-                        char op = ops.pop();
-                        int result = do_calculation(op);
-                        nums.push(result);
-                    }
-                    if (ops.isEmpty() || ops.pop() != '(') {
-                        return Optional.empty();
-                    }
-                }
-            }
+    /**
+     * evaluate many expressions in parallel on the common fork-join pool
+     * @param expressions original mathematical expressions
+     * @param base expression radix
+     * @return results in input order
+     */
+    public static BatchResult calculateAll(String[] expressions, int base) {
+        return calculateAll(Arrays.asList(expressions), base);
+    }
 
-            while (!ops.isEmpty() && nums.size() > 1) {
-                char op = ops.pop();
-                int result = do_calculation(op);
-                nums.push(result);
-            }
+    /**
+     * evaluate many expressions in parallel on the common fork-join pool
+     * @param expressions original mathematical expressions
+     * @param base expression radix
+     * @return results in input order
+     */
+    public static BatchResult calculateAll(List<String> expressions, int base) {
+        return calculateAll(expressions, base, ForkJoinPool.commonPool());
+    }
 
-            if (!ops.isEmpty() || nums.size() != 1) {
-                return Optional.empty();
-            }
+    /**
+     * evaluate many expressions in parallel, every worker thread evaluates on its own stacks
+     * @param expressions original mathematical expressions
+     * @param base expression radix
+     * @param pool pool to run on
+     * @return results in input order
+     */
+    public static BatchResult calculateAll(List<String> expressions, int base, ForkJoinPool pool) {
+        if (!(expressions instanceof RandomAccess)) {
+            expressions = Arrays.asList(expressions.toArray(new String[0]));
+        }
+        BatchResult result = new BatchResult(expressions.size());
+        pool.invoke(new BatchTask(expressions, base, result, 0, expressions.size()));
+        return result;
+    }
+
+    /**
+     * put a parse cache in front of {@link #calculate(String, int)}
+     * @param parseCache cache to use, null to parse every call again
+     */
+    public static void setCache(ExpressionCache parseCache) {
+        cache = parseCache;
+    }
+
+    /**
+     * @return parse cache in front of {@link #calculate(String, int)}, null when disabled
+     */
+    public static ExpressionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * evaluate through the parse cache when one is installed
+     * @param expression original mathematical expression
+     * @param base expression radix
+     * @return true - expression is valid; false - expression is invalid
+     */
+    private boolean evaluate_cached(String expression, int base) {
+        ExpressionCache parsed = cache;
+        if (parsed == null) {
+            return evaluate(expression, base);
+        }
+        // a cached expression skips tokenization and only runs its postfix code
+        ExpressionCache.Parsed entry = parsed.lookup(expression, base);
+        if (entry.error() != OK) {
+            // the cache keeps the reason of an invalid expression
+            error = entry.error();
+            position = entry.position();
+            tokens = entry.tokens();
+            return false;
+        }
+        return evaluate(entry.compiled().get());
+    }
 
-            return Optional.of(nums.pop());
+    /**
+     * parse `expression` once into a form that can be evaluated many times without re-parsing
+     * @param expression original mathematical expression
+     * @param base expression radix
+     * @return if expression is valid, return compiled expression; otherwise return Optional.empty()
+     */
+    public static Optional<CompiledExpression> compile(String expression, int base) {
+        return compile(expression, base, NO_VARIABLES);
+    }
 
-        } catch (Exception e) {
+    /**
+     * parse `expression` with named variables, each name is bound to the slot of its index in `variables`
+     * <p>
+     * an identifier starts with a letter or `_` that is not a digit of `base` and goes on over letters,
+     * digits and `_`; every identifier must be one of `variables`. names are resolved to slots here,
+     * so evaluation never looks a name up, and constant subexpressions are folded by {@link ExpressionOptimizer}
+     * @param expression original mathematical expression
+     * @param base expression radix
+     * @param variables variable names, slot order
+     * @return if expression is valid, return compiled expression; otherwise return Optional.empty()
+     */
+    public static Optional<CompiledExpression> compile(String expression, int base, String... variables) {
+        // the thread's evaluator keeps error() and position() of a failed compile
+        Calculation calc = LOCAL.get();
+        calc.codeLen = 0;
+        calc.maxDepth = 0;
+        calc.compiling = true;
+        calc.variables = variables.length == 0 ? null : variables;
+        boolean valid = calc.scan(expression, base);
+        calc.compiling = false;
+        calc.variables = null;
+        if (!valid) {
             return Optional.empty();
         }
+        int[] code = ExpressionOptimizer.optimize(calc.code, calc.codeLen, calc.maxDepth);
+        return Optional.of(new CompiledExpression(expression, base, variables.clone(),
+                code, ExpressionOptimizer.depth(code), calc.tokens));
     }
 
     /**
-     * do binary calculation
-     * @param op operator character
-     * @return calculation result
+     * parse `expression` for {@link ExpressionCache}: compile it, and when it is invalid keep the reason an
+     * evaluation of the text reports. compiling computes nothing, so it goes past a division by zero and may fail
+     * later or not at all; the reason is therefore taken from the evaluator, on invalid expressions only
+     * @param expression original mathematical expression
+     * @param base expression radix
+     * @return parse result
      */
-    private static int do_calculation(char op) {
-        BiFunction<Integer, Integer, Integer> func = OP_FUNC.get(op);
-        int rhs = nums.pop();
-        int lhs = nums.pop();
-        return func.apply(lhs, rhs);
+    static ExpressionCache.Parsed parse(String expression, int base) {
+        Optional<CompiledExpression> compiled = compile(expression, base);
+        Calculation calc = LOCAL.get();
+        if (compiled.isPresent() && calc.evaluate(compiled.get())) {
+            return new ExpressionCache.Parsed(compiled, OK, -1, compiled.get().tokens);
+        }
+        int reason = calc.evaluate(expression, base) ? UNKNOWN_ERROR : calc.error;
+        return new ExpressionCache.Parsed(compiled, reason, calc.position, calc.tokens);
     }
 
     /**
-     * clarify `c` is a operator character
-     * @param c operator character
-     * @return true - operator character; false - not a operator character
+     * @return evaluator owned by the current thread
      */
-    private static boolean is_operator(char c) {
-        return c == '+' || c == '-' || c == '*' || c == '/';
+    static Calculation local() {
+        return LOCAL.get();
     }
 
     /**
-     * clarify `c` is a digital character
-     * @param c character
-     * @param base digit radix
-     * @return true - is digital character; false - not a digital character
+     * evaluate `expression` on this instance's stacks, the result is read back by {@link #value()}
+     * @param expression original mathematical expression
+     * @param base expression radix
+     * @return true - expression is valid; false - expression is invalid
+     */
+    public boolean evaluate(CharSequence expression, int base) {
+        return scan(expression, base) && result();
+    }
+
+    /**
+     * evaluate the expression held in `expression[offset, offset + length)`, without copying it into a String
+     * @param expression buffer holding the expression
+     * @param offset expression start
+     * @param length expression length
+     * @param base expression radix
+     * @return true - expression is valid; false - expression is invalid
+     */
+    public boolean evaluate(char[] expression, int offset, int length, int base) {
+        reset(base);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            feed(expression[i]);
+        }
+        return finish();
+    }
+
+    /**
+     * evaluate the ASCII expression held in `expression[offset, offset + length)`, bytes are read as Latin-1
+     * characters so multi-byte UTF-8 sequences are skipped like any other unknown character
+     * @param expression buffer holding the expression
+     * @param offset expression start
+     * @param length expression length
+     * @param base expression radix
+     * @return true - expression is valid; false - expression is invalid
+     */
+    public boolean evaluate(byte[] expression, int offset, int length, int base) {
+        reset(base);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            feed((char) (expression[i] & 0xFF));
+        }
+        return finish();
+    }
+
+    /**
+     * run a compiled expression with wrapping `int` arithmetic whatever the mode, the result is read back by
+     * {@link #value()}
+     * @param expression compiled expression without variables
+     * @return true - expression is valid; false - division by zero, reported without a position
+     */
+    public boolean evaluate(CompiledExpression expression) {
+        return evaluate(expression, NO_VALUES);
+    }
+
+    /**
+     * run a compiled expression with variable values and wrapping `int` arithmetic whatever the mode,
+     * the result is read back by {@link #value()}
+     * <p>
+     * the postfix code is interpreted until the expression has been evaluated often enough to be worth
+     * translating to bytecode, see {@link CompiledExpression#toKernel()}; from then on the kernel runs instead
+     * @param expression compiled expression
+     * @param values variable values indexed by slot
+     * @return true - expression is valid; false - division by zero, reported without a position
+     */
+    public boolean evaluate(CompiledExpression expression, int[] values) {
+        if (values.length < expression.variableCount()) {
+            throw new IllegalArgumentException("expected " + expression.variableCount() + " variable values");
+        }
+        // the stack shape was checked by the compiler, only values can fail here
+        error = OK;
+        position = -1;
+        tokens = expression.tokens;
+        bigValue = null;
+        CompiledExpression.Kernel kernel = expression.tier();
+        if (kernel == null) {
+            return interpret(expression, values);
+        }
+        long result = kernel.eval(values);
+        error = CompiledExpression.Kernel.error(result);
+        if (error != OK) {
+            return false;
+        }
+        value = CompiledExpression.Kernel.value(result);
+        return true;
+    }
+
+    /**
+     * run the postfix code of a compiled expression
+     * @param expression compiled expression
+     * @param values variable values indexed by slot, at least one per variable
+     * @return true - expression is valid; false - division by zero
      */
-    private static boolean is_digit(char c, int base) {
-        return Character.digit(c, base) != -1;
+    boolean interpret(CompiledExpression expression, int[] values) {
+        int[] code = expression.code;
+        int[] stack = frame;
+        if (stack.length < expression.depth) {
+            stack = frame = new int[expression.depth];
+        }
+        int top = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CompiledExpression.PUSH -> stack[top++] = code[++pc];
+                case CompiledExpression.LOAD -> stack[top++] = values[code[++pc]];
+                case CompiledExpression.NEG -> stack[top - 1] = -stack[top - 1];
+                case CompiledExpression.ADD -> {
+                    top--;
+                    stack[top - 1] += stack[top];
+                }
+                case CompiledExpression.SUB -> {
+                    top--;
+                    stack[top - 1] -= stack[top];
+                }
+                case CompiledExpression.MUL -> {
+                    top--;
+                    stack[top - 1] *= stack[top];
+                }
+                case CompiledExpression.DIV -> {
+                    top--;
+                    if (stack[top] == 0) {
+                        error = DIVISION_BY_ZERO;
+                        return false;
+                    }
+                    stack[top - 1] /= stack[top];
+                }
+            }
+        }
+
+        value = stack[0];
+        return true;
+    }
+
+    /**
+     * shunting-yard scan over `expression`, the result is left at the bottom of the number stack
+     * @param expression original mathematical expression
+     * @param base expression radix
+     * @return true - expression is valid; false - expression is invalid
+     */
+    private boolean scan(CharSequence expression, int base) {
+        source = expression;
+        try {
+            return scan_tokens(expression, base);
+        } finally {
+            source = null;
+        }
+    }
+
+    /**
+     * body of {@link #scan(CharSequence, int)}
+     */
+    private boolean scan_tokens(CharSequence expression, int base) {
+        numTop = 0;
+        opTop = 0;
+        nesting = 0;
+        error = OK;
+        position = -1;
+        tokens = 0;
+
+        int length = expression.length();
+        if (length > lengthLimit) {
+            return fail(TOO_LONG, lengthLimit);
+        }
+        byte[] digits = digit_table(base);
+        long cutoff = literal_cutoff(base);
+        int poll = cancellable ? CANCEL_POLL : Integer.MAX_VALUE;
+        for (int i = 0; i < length; i++) {
+            if (i >= poll) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return fail(CANCELLED, i);
+                }
+                poll = i + CANCEL_POLL;
+            }
+            char c = expression.charAt(i);
+            int digit = digit(c, base, digits);
+
+            if (digit != -1) {
+                if (++tokens > tokenLimit) {
+                    return fail(TOO_MANY_TOKENS, i);
+                }
+                int radix = base;
+                byte[] table = digits;
+                long limit = cutoff;
+                int j = i + 1;
+                if (digit == 0 && radixPrefixes && j + 1 < length) {
+                    int prefixed = prefix_radix(expression, j, base, digits);
+                    if (prefixed != 0) {
+                        radix = prefixed;
+                        table = DIGITS[prefixed];
+                        limit = literal_cutoff(prefixed);
+                        digit = digit(expression.charAt(j + 1), radix, table);
+                        j += 2;
+                    }
+                }
+                // accumulate the literal in place, in int mode the same range as Integer.parseInt
+                long number = digit;
+                while (j < length && (digit = digit(expression.charAt(j), radix, table)) != -1) {
+                    if (number > limit && number > (literalLimit - digit) / radix) {
+                        break;
+                    }
+                    number = number * radix + digit;
+                    j++;
+                }
+                if (j < length && digit != -1) {
+                    // the literal is out of the mode's range
+                    if (mode != Mode.BIG) {
+                        return fail(NUMBER_TOO_LARGE, i);
+                    }
+                    j = big_literal(expression, j, radix, table, number);
+                } else {
+                    push_num(number);
+                }
+                i = j - 1;
+            } else if (variables != null && (Character.isLetter(c) || c == '_')) {
+                int j = i + 1;
+                while (j < length && is_identifier_part(expression.charAt(j))) {
+                    j++;
+                }
+                int slot = slot_of(expression, i, j);
+                if (slot == -1) {
+                    return fail(UNKNOWN_VARIABLE, i);
+                }
+                if (++tokens > tokenLimit) {
+                    return fail(TOO_MANY_TOKENS, i);
+                }
+                push_var(slot);
+                i = j - 1;
+            } else if (!symbol(c, c == '-' && is_unary_minus(expression, i))) {
+                position = i;
+                return false;
+            }
+        }
+
+        if (!reduce_all()) {
+            position = length;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * grow both stacks at once to what {@link #source} can need, the first time one of them is full during a scan
+     * <p>
+     * every operator stack entry comes from an operator or `(`, and a valid expression never has more numbers
+     * waiting than operators plus one, so counting those characters bounds both stacks. the count stops where the
+     * scan is bound to fail, at the token limit or the first `(` too deep
+     */
+    private void reserve() {
+        CharSequence expression = source;
+        source = null;
+        int length = expression.length();
+        int count = 0;
+        int depth = 0;
+        // table lookups instead of comparisons, digits and operators alternate too irregularly to branch on
+        for (int i = 0; i < length && count < tokenLimit && depth <= depthLimit; i++) {
+            char c = expression.charAt(i);
+            if (c < 128) {
+                count += STACK_ENTRY[c];
+                depth += NESTING[c];
+            }
+        }
+        if (ops.length < count) {
+            ops = Arrays.copyOf(ops, count);
+        }
+        if (nums.length <= count) {
+            grow_nums(count + 1);
+        }
+    }
+
+    /**
+     * resize the number stack, and {@link #bigs} with it
+     * @param size new size
+     */
+    private void grow_nums(int size) {
+        nums = Arrays.copyOf(nums, size);
+        if (bigs != null) {
+            bigs = Arrays.copyOf(bigs, size);
+        }
+    }
+
+    /**
+     * new size of a full stack of `size` entries, while feeding or when {@link #reserve()} was not enough
+     * @param size stack size
+     * @return doubled size, no larger than the token limit allows
+     */
+    private int grown(int size) {
+        return Math.max(size + 1, (int) Math.min((long) size << 1, tokenLimit + 1L));
+    }
+
+    /**
+     * largest literal prefix that any further digit keeps in range, so that only longer literals pay for a division
+     * @param base expression radix
+     * @return cutoff of {@link #literalLimit}
+     */
+    private long literal_cutoff(int base) {
+        return base < 2 ? 0 : (literalLimit - (base - 1)) / base;
+    }
+
+    /**
+     * finish a literal that overflowed `long` in {@link Mode#BIG}
+     * @param expr original mathematical expression
+     * @param from index of the first digit that did not fit
+     * @param base expression radix
+     * @param digits ASCII digit table of `base`
+     * @param number value of the digits before `from`
+     * @return index after the literal
+     */
+    private int big_literal(CharSequence expr, int from, int base, byte[] digits, long number) {
+        BigInteger big = BigInteger.valueOf(number);
+        BigInteger radix = BigInteger.valueOf(base);
+        int j = from;
+        int digit;
+        while (j < expr.length() && (digit = digit(expr.charAt(j), base, digits)) != -1) {
+            big = big.multiply(radix).add(BigInteger.valueOf(digit));
+            j++;
+        }
+        push_big(big);
+        return j;
+    }
+
+    /**
+     * record an error
+     * @param code error code
+     * @param at character index
+     * @return false
+     */
+    private boolean fail(int code, int at) {
+        error = code;
+        position = at;
+        return false;
+    }
+
+    /**
+     * handle a character that is not part of a literal, characters other than operators and parentheses are skipped
+     * @param c character
+     * @param unary true if `c` is a unary minus
+     * @return false if the expression is invalid, {@link #error} tells why
+     */
+    private boolean symbol(char c, boolean unary) {
+        if (!is_operator(c) && c != '(' && c != ')') {
+            return true;
+        }
+        if (++tokens > tokenLimit) {
+            error = TOO_MANY_TOKENS;
+            return false;
+        }
+        if (c == '-') {
+            if (unary) {
+                push_num(0);
+                push_op('-');
+                return true;
+            }
+            return handle_binary_minus(c);
+        } else if (is_operator(c)) {
+            if (opTop != 0) {
+                char prevOp = ops[opTop - 1];
+                if (priority(c) <= priority(prevOp)) {
+                    if (!do_calculation(prevOp)) {
+                        return false;
+                    }
+                    opTop--;
+                }
+            }
+            push_op(c);
+        } else if (c == '(') {
+            if (++nesting > depthLimit) {
+                error = TOO_DEEP;
+                return false;
+            }
+            push_op(c);
+        } else {
+            while (opTop != 0 && ops[opTop - 1] != '(') {
+                if (!do_calculation(ops[--opTop])) {
+                    return false;
+                }
+            }
+            if (opTop == 0) {
+                error = UNBALANCED_PARENTHESIS;
+                return false;
+            }
+            opTop--;
+            nesting--;
+        }
+        return true;
+    }
+
+    /**
+     * apply the operators left at the end of the expression
+     * @return true - exactly one number is left; false - expression is invalid, {@link #error} tells why
+     */
+    private boolean reduce_all() {
+        while (opTop != 0 && numTop > 1) {
+            if (!do_calculation(ops[--opTop])) {
+                return false;
+            }
+        }
+
+        if (opTop != 0) {
+            error = ops[opTop - 1] == '(' ? UNBALANCED_PARENTHESIS : MISSING_OPERAND;
+        } else if (numTop != 1) {
+            error = numTop == 0 ? MISSING_OPERAND : MISSING_OPERATOR;
+        }
+        return error == OK;
+    }
+
+    /**
+     * start a push-style evaluation, the expression is then passed one character at a time to {@link #feed(char)}
+     * and closed by {@link #finish()}; used where the input arrives in pieces, such as byte streams
+     * @param base expression radix
+     */
+    public void reset(int base) {
+        numTop = 0;
+        opTop = 0;
+        nesting = 0;
+        feedBase = base;
+        feedDigits = digit_table(base);
+        feedCutoff = literal_cutoff(base);
+        feedRadix = base;
+        feedRadixDigits = feedDigits;
+        feedRadixCutoff = feedCutoff;
+        feedPrefix = 0;
+        feedIndex = 0;
+        feedNumber = -1;
+        feedBig = null;
+        feedFailed = false;
+        tokens = 0;
+        error = OK;
+        position = -1;
+    }
+
+    /**
+     * pass the next character of the expression started by {@link #reset(int)}
+     * @param c character
+     */
+    public void feed(char c) {
+        if (feedFailed) {
+            return;
+        }
+        if (feedIndex >= lengthLimit) {
+            fail(TOO_LONG, lengthLimit);
+            feedFailed = true;
+            return;
+        }
+        if (cancellable && (feedIndex & (CANCEL_POLL - 1)) == CANCEL_POLL - 1
+                && Thread.currentThread().isInterrupted()) {
+            fail(CANCELLED, feed_position(feedIndex));
+            feedFailed = true;
+            return;
+        }
+        if (feedPrefix != 0 && !feed_prefix(c)) {
+            return;
+        }
+        int digit = digit(c, feedRadix, feedRadixDigits);
+        if (digit == -1 && feedRadix != feedBase) {
+            // a prefixed literal ends here, `c` may still start a literal of the expression radix
+            if (!feed_literal()) {
+                return;
+            }
+            digit = digit(c, feedBase, feedDigits);
+        }
+        if (digit != -1) {
+            if (feedNumber == -1) {
+                feedNumber = digit;
+                feedStart = feedIndex;
+            } else if (feedBig != null) {
+                feedBig = feedBig.multiply(BigInteger.valueOf(feedRadix)).add(BigInteger.valueOf(digit));
+            } else if (feedNumber <= feedRadixCutoff || feedNumber <= (literalLimit - digit) / feedRadix) {
+                feedNumber = feedNumber * feedRadix + digit;
+            } else if (mode == Mode.BIG) {
+                feedBig = BigInteger.valueOf(feedNumber).multiply(BigInteger.valueOf(feedRadix))
+                        .add(BigInteger.valueOf(digit));
+            } else {
+                fail(NUMBER_TOO_LARGE, feed_position(feedStart));
+                feedFailed = true;
+            }
+        } else if (feedNumber == 0 && radixPrefixes && feedIndex == feedStart + 1 && prefix_radix(c) != 0) {
+            // maybe `0b`, `0o` or `0x`, the literal waits for the next character
+            feedPrefix = prefix_radix(c);
+        } else {
+            if (feedNumber != -1 && !feed_literal()) {
+                return;
+            }
+            boolean unary = c == '-' && (feedIndex == 0 || is_operator(feedPrev) || feedPrev == '(');
+            if (!symbol(c, unary)) {
+                position = feed_position(feedIndex);
+                feedFailed = true;
+            }
+        }
+        feedPrev = c;
+        feedIndex++;
+    }
+
+    /**
+     * settle a pending {@link #feedPrefix} on the character after its letter: a digit of the prefix radix opens a
+     * literal in that radix, anything else leaves the `0` a literal of its own and the letter skipped
+     * @param c character after the prefix letter
+     * @return false if the expression turned invalid
+     */
+    private boolean feed_prefix(char c) {
+        int radix = feedPrefix;
+        feedPrefix = 0;
+        if (digit(c, radix, DIGITS[radix]) != -1) {
+            feedRadix = radix;
+            feedRadixDigits = DIGITS[radix];
+            feedRadixCutoff = literal_cutoff(radix);
+            return true;
+        }
+        return feed_literal();
+    }
+
+    /**
+     * @param index index in the fed expression
+     * @return `index` clamped to an int position
+     */
+    private static int feed_position(long index) {
+        return (int) Math.min(index, Integer.MAX_VALUE);
+    }
+
+    /**
+     * close the expression started by {@link #reset(int)}, the result is read back by {@link #value()}
+     * @return true - expression is valid; false - expression is invalid
+     */
+    public boolean finish() {
+        if (feedFailed) {
+            return false;
+        }
+        feedPrefix = 0;
+        if (feedNumber != -1 && !feed_literal()) {
+            return false;
+        }
+        if (!reduce_all()) {
+            position = feed_position(feedIndex);
+            return false;
+        }
+        return result();
+    }
+
+    /**
+     * take over the push-style state of `other`, so that feeding or finishing this instance continues the
+     * expression from where `other` stands while `other` is left untouched; stacks are reused when they fit
+     * @param other evaluator between {@link #reset(int)} and {@link #finish()}
+     */
+    void copyFrom(Calculation other) {
+        if (nums.length < other.numTop) {
+            nums = new long[other.nums.length];
+        }
+        System.arraycopy(other.nums, 0, nums, 0, other.numTop);
+        if (bigs != null && bigs.length != nums.length) {
+            bigs = new BigInteger[nums.length];
+        }
+        if (other.bigs != null) {
+            if (bigs == null) {
+                bigs = new BigInteger[nums.length];
+            }
+            System.arraycopy(other.bigs, 0, bigs, 0, other.numTop);
+        } else if (bigs != null) {
+            Arrays.fill(bigs, null);
+        }
+        if (ops.length < other.opTop) {
+            ops = new char[other.ops.length];
+        }
+        System.arraycopy(other.ops, 0, ops, 0, other.opTop);
+        numTop = other.numTop;
+        opTop = other.opTop;
+        nesting = other.nesting;
+        mode = other.mode;
+        literalLimit = other.literalLimit;
+        radixPrefixes = other.radixPrefixes;
+        lengthLimit = other.lengthLimit;
+        depthLimit = other.depthLimit;
+        tokenLimit = other.tokenLimit;
+        feedBase = other.feedBase;
+        feedDigits = other.feedDigits;
+        feedCutoff = other.feedCutoff;
+        feedRadix = other.feedRadix;
+        feedRadixDigits = other.feedRadixDigits;
+        feedRadixCutoff = other.feedRadixCutoff;
+        feedPrefix = other.feedPrefix;
+        feedIndex = other.feedIndex;
+        feedPrev = other.feedPrev;
+        feedNumber = other.feedNumber;
+        feedBig = other.feedBig;
+        feedStart = other.feedStart;
+        feedFailed = other.feedFailed;
+        tokens = other.tokens;
+        error = other.error;
+        position = other.position;
+    }
+
+    /**
+     * push the literal accumulated by {@link #feed(char)}
+     * @return false if the literal is one token too many
+     */
+    private boolean feed_literal() {
+        if (++tokens > tokenLimit) {
+            fail(TOO_MANY_TOKENS, feed_position(feedStart));
+            feedFailed = true;
+            return false;
+        }
+        if (feedBig != null) {
+            push_big(feedBig);
+            feedBig = null;
+        } else {
+            push_num(feedNumber);
+        }
+        feedNumber = -1;
+        if (feedRadix != feedBase) {
+            feedRadix = feedBase;
+            feedRadixDigits = feedDigits;
+            feedRadixCutoff = feedCutoff;
+        }
+        return true;
+    }
+
+    /**
+     * take the number left on the stack as the result
+     * @return true
+     */
+    private boolean result() {
+        bigValue = bigs != null ? bigs[0] : null;
+        // a promoted result keeps a 0 placeholder in nums
+        value = bigValue != null ? bigValue.longValue() : nums[0];
+        return true;
+    }
+
+    /**
+     * @return result of the last successful evaluation, truncated to `int` in the 64-bit modes
+     */
+    public int value() {
+        return (int) value;
+    }
+
+    /**
+     * @return result of the last successful evaluation, truncated to `long` when it was promoted
+     */
+    public long longValue() {
+        return bigValue != null ? bigValue.longValue() : value;
+    }
+
+    /**
+     * @return result of the last successful evaluation at full precision
+     */
+    public BigInteger bigValue() {
+        return bigValue != null ? bigValue : BigInteger.valueOf(value);
+    }
+
+    /**
+     * choose the arithmetic of later evaluations of strings and characters; compiled expressions always use
+     * wrapping `int` arithmetic
+     * @param numericMode numeric mode
+     */
+    public void setMode(Mode numericMode) {
+        mode = numericMode;
+        literalLimit = numericMode == Mode.INT || numericMode == Mode.CHECKED_INT
+                ? Integer.MAX_VALUE : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return numeric mode
+     */
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * read `0b`, `0o` and `0x` literals in later evaluations of strings and characters. off by default, because
+     * a prefix changes the value of expressions that were valid without it: `0x4` is 0 in binary when `x` and `4`
+     * are skipped, and 4 when the prefix is read
+     * @param enabled true to read prefixes, false to skip their letter like any other non-digit
+     */
+    public void setRadixPrefixes(boolean enabled) {
+        radixPrefixes = enabled;
+    }
+
+    /**
+     * @return true if `0b`, `0o` and `0x` literals are read
+     */
+    public boolean radixPrefixes() {
+        return radixPrefixes;
+    }
+
+    /**
+     * stop later evaluations of strings and characters with {@link #CANCELLED} when the evaluating thread is
+     * interrupted. off by default, so a caller whose interrupt status happens to be set still gets its result;
+     * meant for evaluations a background task runs on behalf of another thread. not taken over by
+     * {@link #copyFrom(Calculation)}
+     * @param enabled true to poll the interrupt status every thousand characters
+     */
+    public void setCancellable(boolean enabled) {
+        cancellable = enabled;
+    }
+
+    /**
+     * @return true if an interrupt stops an evaluation
+     */
+    public boolean cancellable() {
+        return cancellable;
+    }
+
+    /**
+     * limit the length of later expressions, a longer one fails with {@link #TOO_LONG} before it is read
+     * @param maxLength most characters accepted
+     */
+    public void setLengthLimit(int maxLength) {
+        lengthLimit = maxLength;
+    }
+
+    /**
+     * @return most characters accepted
+     */
+    public int lengthLimit() {
+        return lengthLimit;
+    }
+
+    /**
+     * limit the parenthesis nesting of later expressions, a deeper one fails with {@link #TOO_DEEP} at the
+     * first `(` too many
+     * @param maxDepth deepest nesting accepted
+     */
+    public void setDepthLimit(int maxDepth) {
+        depthLimit = maxDepth;
+    }
+
+    /**
+     * @return deepest nesting accepted
+     */
+    public int depthLimit() {
+        return depthLimit;
+    }
+
+    /**
+     * limit the tokens of later expressions, which also bounds the stacks; a longer one fails with
+     * {@link #TOO_MANY_TOKENS} at the first token too many
+     * @param maxTokens most literals, variables, operators and parentheses accepted
+     */
+    public void setTokenLimit(int maxTokens) {
+        tokenLimit = maxTokens;
+    }
+
+    /**
+     * @return most tokens accepted
+     */
+    public int tokenLimit() {
+        return tokenLimit;
+    }
+
+    /**
+     * @return literals, variables, operators and parentheses read by the last evaluation
+     */
+    public int tokens() {
+        return tokens;
+    }
+
+    /**
+     * @return error code of the last evaluation, 0 when it was valid
+     */
+    public int error() {
+        return error;
+    }
+
+    /**
+     * @return character index where the last evaluation failed, -1 when it was valid or the index is unknown
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * @param code error code
+     * @return short description of `code`
+     */
+    public static String describe(int code) {
+        return code >= 0 && code < ERROR_MESSAGES.length ? ERROR_MESSAGES[code] : "unknown error";
+    }
+
+    /**
+     * do binary calculation on the two topmost numbers
+     * @param op operator character
+     * @return false if an operand is missing, `op` is an unclosed `(` or the divisor is zero
+     */
+    private boolean do_calculation(char op) {
+        if (numTop < 2) {
+            error = MISSING_OPERAND;
+            return false;
+        }
+        if (compiling) {
+            return emit_operator(op);
+        }
+        if (mode != Mode.INT) {
+            return wide_calculation(op);
+        }
+        int rhs = (int) nums[--numTop];
+        int lhs = (int) nums[numTop - 1];
+        switch (op) {
+            case '+' -> nums[numTop - 1] = lhs + rhs;
+            case '-' -> nums[numTop - 1] = lhs - rhs;
+            case '*' -> nums[numTop - 1] = lhs * rhs;
+            case '/' -> {
+                if (rhs == 0) {
+                    error = DIVISION_BY_ZERO;
+                    return false;
+                }
+                nums[numTop - 1] = lhs / rhs;
+            }
+            default -> {
+                error = UNBALANCED_PARENTHESIS;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * binary calculation in the checked modes, overflow is detected without exceptions
+     * @param op operator character
+     * @return false if `op` is an unclosed `(`, the divisor is zero or the result overflows
+     */
+    private boolean wide_calculation(char op) {
+        if (!is_operator(op)) {
+            error = UNBALANCED_PARENTHESIS;
+            return false;
+        }
+        numTop--;
+        if (bigs != null && (bigs[numTop] != null || bigs[numTop - 1] != null)) {
+            return big_calculation(op);
+        }
+        long rhs = nums[numTop];
+        long lhs = nums[numTop - 1];
+        if (op == '/' && rhs == 0) {
+            error = DIVISION_BY_ZERO;
+            return false;
+        }
+
+        long result;
+        boolean overflow;
+        switch (op) {
+            case '+' -> {
+                result = lhs + rhs;
+                overflow = ((lhs ^ result) & (rhs ^ result)) < 0;
+            }
+            case '-' -> {
+                result = lhs - rhs;
+                overflow = ((lhs ^ rhs) & (lhs ^ result)) < 0;
+            }
+            case '*' -> {
+                result = lhs * rhs;
+                overflow = Math.multiplyHigh(lhs, rhs) != result >> 63;
+            }
+            default -> {
+                result = lhs / rhs;
+                overflow = lhs == Long.MIN_VALUE && rhs == -1;
+            }
+        }
+        if (mode == Mode.CHECKED_INT) {
+            // int operands never overflow a long, only the int range matters
+            overflow = result != (int) result;
+        }
+
+        if (!overflow) {
+            nums[numTop - 1] = result;
+            return true;
+        }
+        if (mode != Mode.BIG) {
+            error = OVERFLOW;
+            return false;
+        }
+        return big_calculation(op);
+    }
+
+    /**
+     * binary calculation on {@link BigInteger}, the result goes back to {@link #nums} when it fits in a long
+     * @param op operator character
+     * @return false if the divisor is zero
+     */
+    private boolean big_calculation(char op) {
+        BigInteger rhs = big_at(numTop);
+        BigInteger lhs = big_at(numTop - 1);
+        if (op == '/' && rhs.signum() == 0) {
+            error = DIVISION_BY_ZERO;
+            return false;
+        }
+        BigInteger result = switch (op) {
+            case '+' -> lhs.add(rhs);
+            case '-' -> lhs.subtract(rhs);
+            case '*' -> lhs.multiply(rhs);
+            default -> lhs.divide(rhs);
+        };
+        numTop--;
+        if (result.bitLength() < Long.SIZE) {
+            push_num(result.longValue());
+        } else {
+            push_big(result);
+        }
+        return true;
+    }
+
+    /**
+     * @param i number stack index
+     * @return number at `i` as a BigInteger
+     */
+    private BigInteger big_at(int i) {
+        return bigs != null && bigs[i] != null ? bigs[i] : BigInteger.valueOf(nums[i]);
+    }
+
+    /**
+     * push a number promoted to BigInteger
+     * @param n number
+     */
+    private void push_big(BigInteger n) {
+        push_num(0);
+        if (bigs == null) {
+            bigs = new BigInteger[nums.length];
+        }
+        bigs[numTop - 1] = n;
+    }
+
+    /**
+     * emit the postfix instruction for a reduction
+     * @param op operator character
+     * @return false if `op` is not an operator
+     */
+    private boolean emit_operator(char op) {
+        switch (op) {
+            case '+' -> emit(CompiledExpression.ADD);
+            case '-' -> emit(CompiledExpression.SUB);
+            case '*' -> emit(CompiledExpression.MUL);
+            case '/' -> emit(CompiledExpression.DIV);
+            default -> {
+                error = UNBALANCED_PARENTHESIS;
+                return false;
+            }
+        }
+        numTop--;
+        return true;
+    }
+
+    /**
+     * append one code word, growing the buffer when full
+     * @param word opcode or operand
+     */
+    private void emit(int word) {
+        if (codeLen == code.length) {
+            code = Arrays.copyOf(code, codeLen << 1);
+        }
+        code[codeLen++] = word;
+    }
+
+    /**
+     * push a number, growing the stack when full
+     * @param n number
+     */
+    private void push_num(long n) {
+        if (numTop == nums.length && source != null) {
+            reserve();
+        }
+        if (numTop == nums.length) {
+            grow_nums(grown(numTop));
+        }
+        if (bigs != null) {
+            bigs[numTop] = null;
+        }
+        nums[numTop++] = n;
+        if (compiling) {
+            emit(CompiledExpression.PUSH);
+            emit((int) n);
+            maxDepth = Math.max(maxDepth, numTop);
+        }
+    }
+
+    /**
+     * push a variable while compiling
+     * @param slot variable slot
+     */
+    private void push_var(int slot) {
+        push_num(0);
+        code[codeLen - 2] = CompiledExpression.LOAD;
+        code[codeLen - 1] = slot;
+    }
+
+    /**
+     * find the slot of the identifier `expr[from, to)`
+     * @param expr original mathematical expression
+     * @param from identifier start
+     * @param to identifier end
+     * @return variable slot, -1 if the identifier is not a variable
+     */
+    private int slot_of(CharSequence expr, int from, int to) {
+        for (int slot = 0; slot < variables.length; slot++) {
+            String name = variables[slot];
+            if (name.length() == to - from && CharSequence.compare(name, expr.subSequence(from, to)) == 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * radix named by a `0b`, `0o` or `0x` prefix, upper or lower case
+     * @param c character after a `0`
+     * @return 2, 8 or 16, 0 if `c` names no radix
+     */
+    private static int prefix_radix(char c) {
+        return switch (c) {
+            case 'b', 'B' -> 2;
+            case 'o', 'O' -> 8;
+            case 'x', 'X' -> 16;
+            default -> 0;
+        };
+    }
+
+    /**
+     * radix of a prefixed literal, such as `0x1F` in a decimal expression, when prefixes are read. the prefix
+     * counts only where its letter is not a digit of `base` and a digit of its radix follows, so `0b1` is 0xb1
+     * in hexadecimal and `0x` alone is still a 0 followed by a skipped letter
+     * @param expr original mathematical expression
+     * @param i index of the character after a `0` that starts a literal, `i + 1` is in `expr`
+     * @param base expression radix
+     * @param digits ASCII digit table of `base`
+     * @return 2, 8 or 16, 0 if the `0` is not a prefix
+     */
+    private static int prefix_radix(CharSequence expr, int i, int base, byte[] digits) {
+        char c = expr.charAt(i);
+        int radix = prefix_radix(c);
+        if (radix == 0 || digit(c, base, digits) != -1 || digit(expr.charAt(i + 1), radix, DIGITS[radix]) == -1) {
+            return 0;
+        }
+        return radix;
+    }
+
+    /**
+     * @param base radix
+     * @return ASCII digit table of `base`
+     */
+    private static byte[] digit_table(int base) {
+        return DIGITS[base >= 0 && base < DIGITS.length ? base : 0];
+    }
+
+    /**
+     * digit value of `c`, looked up in `digits` for ASCII and by {@link Character#digit(char, int)} otherwise
+     * @param c character
+     * @param base digit radix
+     * @param digits ASCII digit table of `base`
+     * @return digit value, -1 if `c` is not a digit
+     */
+    private static int digit(char c, int base, byte[] digits) {
+        return c < 128 ? digits[c] : Character.digit(c, base);
+    }
+
+    /**
+     * clarify `c` can continue an identifier
+     * @param c character
+     * @return true - letter, digit or `_`; false - anything else
+     */
+    private static boolean is_identifier_part(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * push an operator, growing the stack when full
+     * @param c operator character or `(`
+     */
+    private void push_op(char c) {
+        if (opTop == ops.length && source != null) {
+            reserve();
+        }
+        if (opTop == ops.length) {
+            ops = Arrays.copyOf(ops, grown(opTop));
+        }
+        ops[opTop++] = c;
+    }
+
+    /**
+     * clarify `c` is a operator character
+     * @param c operator character
+     * @return true - operator character; false - not a operator character
+     */
+    private static boolean is_operator(char c) {
+        return c == '+' || c == '-' || c == '*' || c == '/';
+    }
+
+    /**
+     * evaluates a slice of a batch, splitting at multiples of 64 so no two tasks share a validity word
+     */
+    private static final class BatchTask extends RecursiveAction {
+        private final List<String> expressions;
+        private final int base;
+        private final BatchResult result;
+        private final int from;
+        private final int to;
+
+        BatchTask(List<String> expressions, int base, BatchResult result, int from, int to) {
+            this.expressions = expressions;
+            this.base = base;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_SLICE) {
+                int mid = (from + (to - from) / 2) & ~63;
+                invokeAll(new BatchTask(expressions, base, result, from, mid),
+                        new BatchTask(expressions, base, result, mid, to));
+                return;
+            }
+
+            Calculation calc = LOCAL.get();
+            int[] values = result.values;
+            long[] valid = result.valid;
+            for (int i = from; i < to; i++) {
+                if (calc.evaluate_cached(expressions.get(i), base)) {
+                    values[i] = calc.value();
+                    valid[i >>> 6] |= 1L << i;
+                }
+            }
+        }
     }
 }
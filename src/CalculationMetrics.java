@@ -0,0 +1,380 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * opt-in instrumentation of {@link Calculation#calculate(String, int)}
+ * <p>
+ * while disabled the hot path pays one volatile read. once enabled, with `-Dcalculation.metrics=true`,
+ * {@link #setEnabled(boolean)} or the `Enabled` attribute over JMX, every call is timed and handed to the
+ * {@link Sink}, by default the aggregate returned by {@link #global()}: call counts, invalid input by error kind,
+ * and log-linear histograms of latency, expression length and token count, readable over JMX under
+ * {@link #OBJECT_NAME}. a `Calculation` JFR event is committed as well whenever a flight recording has it enabled
+ * <p>
+ * the MBean is registered lazily, so a process that never enables metrics never starts the platform MBean
+ * server: when metrics are first enabled, by {@link #registerMBean()}, or, with `-Dcalculation.metrics.jmx=true`,
+ * by a background thread as soon as the first call of `calculate` loads this class, so that a running process
+ * can be switched on over JMX
+ */
+public final class CalculationMetrics implements CalculationMetricsMBean {
+    public static final String OBJECT_NAME = "Calculator:type=CalculationMetrics";
+
+    /**
+     * receiver of measurements, called on the evaluating thread so it has to be cheap and thread-safe
+     */
+    public interface Sink {
+        /**
+         * @param length expression length in characters
+         * @param tokens literals, variables, operators and parentheses of the expression
+         * @param error error code, {@link Calculation#OK} when the expression is valid
+         * @param nanos evaluation time
+         */
+        void record(int length, int tokens, int error, long nanos);
+    }
+
+    /**
+     * read by {@link Calculation} on every call
+     */
+    static volatile boolean enabled = Boolean.getBoolean("calculation.metrics");
+
+    /**
+     * aggregate of the whole process
+     */
+    private static final CalculationMetrics GLOBAL = new CalculationMetrics();
+
+    private static volatile Sink sink = GLOBAL::record;
+
+    static {
+        if (enabled || Boolean.getBoolean("calculation.metrics.jmx")) {
+            // starting the platform MBean server takes a hundred milliseconds, the first call does not wait for it
+            Thread registration = new Thread(CalculationMetrics::registerQuietly, "calculation-metrics-jmx");
+            registration.setDaemon(true);
+            registration.start();
+        }
+    }
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder[] invalid = new LongAdder[Calculation.ERROR_CODES];
+    private final Histogram latency = new Histogram();
+    private final Histogram length = new Histogram();
+    private final Histogram tokens = new Histogram();
+
+    private CalculationMetrics() {
+        for (int i = 0; i < invalid.length; i++) {
+            invalid[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return aggregate of the whole process, fed while it is the sink
+     */
+    public static CalculationMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param metricsSink receiver of every later measurement, null for {@link #global()}
+     */
+    public static void setSink(Sink metricsSink) {
+        sink = metricsSink != null ? metricsSink : GLOBAL::record;
+    }
+
+    /**
+     * register {@link #global()} with the platform MBean server, once; call it to have the MBean there while
+     * metrics are still disabled
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(GLOBAL, name);
+            }
+        } catch (InstanceAlreadyExistsException e) {
+            // registered by another class loader's copy, or outside registerMBean
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * {@link #registerMBean()}, for callers that carry on without JMX
+     */
+    private static void registerQuietly() {
+        try {
+            registerMBean();
+        } catch (RuntimeException e) {
+            // no JMX in this process, the metrics still work through global()
+        }
+    }
+
+    /**
+     * hand one measurement to the sink and to JFR
+     */
+    static void report(int length, int tokens, int error, long nanos) {
+        sink.record(length, tokens, error, nanos);
+        CalculationEvent event = new CalculationEvent();
+        if (event.shouldCommit()) {
+            event.length = length;
+            event.tokens = tokens;
+            event.error = Calculation.describe(error);
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * the {@link Sink} of {@link #global()}
+     */
+    private void record(int length, int tokens, int error, long nanos) {
+        calls.increment();
+        if (error != Calculation.OK && error < invalid.length) {
+            invalid[error].increment();
+        }
+        latency.record(nanos);
+        this.length.record(length);
+        this.tokens.record(tokens);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enable) {
+        if (enable) {
+            registerQuietly();
+        }
+        enabled = enable;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getInvalid() {
+        long sum = 0;
+        for (LongAdder count : invalid) {
+            sum += count.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public double getInvalidRatio() {
+        long total = getCalls();
+        return total == 0 ? 0 : (double) getInvalid() / total;
+    }
+
+    @Override
+    public Map<String, Long> getInvalidByError() {
+        Map<String, Long> byError = new LinkedHashMap<>();
+        for (int code = 0; code < invalid.length; code++) {
+            long count = invalid[code].sum();
+            if (count != 0) {
+                byError.put(Calculation.describe(code), count);
+            }
+        }
+        return byError;
+    }
+
+    @Override
+    public double getLatencyMean() {
+        return latency.mean();
+    }
+
+    @Override
+    public long getLatencyP50() {
+        return latency.percentile(0.50);
+    }
+
+    @Override
+    public long getLatencyP99() {
+        return latency.percentile(0.99);
+    }
+
+    @Override
+    public long getLatencyP999() {
+        return latency.percentile(0.999);
+    }
+
+    @Override
+    public long getLatencyMax() {
+        return latency.max();
+    }
+
+    @Override
+    public long getLengthP50() {
+        return length.percentile(0.50);
+    }
+
+    @Override
+    public long getLengthP99() {
+        return length.percentile(0.99);
+    }
+
+    @Override
+    public long getLengthMax() {
+        return length.max();
+    }
+
+    @Override
+    public long getTokensP50() {
+        return tokens.percentile(0.50);
+    }
+
+    @Override
+    public long getTokensP99() {
+        return tokens.percentile(0.99);
+    }
+
+    @Override
+    public long getTokensMax() {
+        return tokens.max();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        ExpressionCache cache = Calculation.getCache();
+        if (cache == null) {
+            return Double.NaN;
+        }
+        long hits = cache.hits();
+        long lookups = hits + cache.misses();
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        for (LongAdder count : invalid) {
+            count.reset();
+        }
+        latency.reset();
+        length.reset();
+        tokens.reset();
+    }
+
+    /**
+     * histogram of non-negative values in log-linear buckets, as HdrHistogram does it: values below 8 are
+     * exact, above that every power of two is split into 8 buckets, so a percentile is off by at most 12.5%
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((Long.SIZE - SUB_BITS) * SUB_COUNT);
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            counts.incrementAndGet(bucket(Math.max(value, 0)));
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * @param value non-negative value
+         * @return bucket of `value`
+         */
+        static int bucket(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        /**
+         * @param bucket bucket index
+         * @return largest value of `bucket`
+         */
+        static long highest(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int shift = bucket / SUB_COUNT - 1;
+            long lowest = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+
+        /**
+         * @param quantile quantile between 0 and 1
+         * @return upper bound of the bucket holding `quantile`, 0 when nothing was recorded
+         */
+        long percentile(double quantile) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(highest(i), max());
+                }
+            }
+            return 0;
+        }
+
+        double mean() {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            return total == 0 ? 0 : (double) sum.sum() / total;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            sum.reset();
+            max.reset();
+        }
+    }
+
+    /**
+     * one measured call, as seen by JDK Flight Recorder
+     */
+    @Name("calculator.Calculation")
+    @Label("Calculation")
+    @Category("Calculator")
+    @Description("One call of Calculation.calculate")
+    static final class CalculationEvent extends jdk.jfr.Event {
+        @Label("Length")
+        int length;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Error")
+        String error;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+}
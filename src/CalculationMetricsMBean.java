@@ -0,0 +1,53 @@
+import java.util.Map;
+
+/**
+ * JMX view of {@link CalculationMetrics}, latencies are in nanoseconds
+ */
+public interface CalculationMetricsMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getCalls();
+
+    long getInvalid();
+
+    double getInvalidRatio();
+
+    /**
+     * @return number of invalid expressions by error description
+     */
+    Map<String, Long> getInvalidByError();
+
+    double getLatencyMean();
+
+    long getLatencyP50();
+
+    long getLatencyP99();
+
+    long getLatencyP999();
+
+    long getLatencyMax();
+
+    long getLengthP50();
+
+    long getLengthP99();
+
+    long getLengthMax();
+
+    long getTokensP50();
+
+    long getTokensP99();
+
+    long getTokensMax();
+
+    /**
+     * @return hit rate of the parse cache of {@link Calculation#calculate(String, int)}, NaN without a cache
+     */
+    double getCacheHitRate();
+
+    /**
+     * drop everything collected so far
+     */
+    void reset();
+}
@@ -0,0 +1,166 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * headless evaluation server on the loopback interface, speaking the {@link StreamCalculator} line protocol:
+ * every request is one expression ending with a newline, every response is one line with its result or `invalid`
+ * <p>
+ * requests may be pipelined. everything a read brings in is evaluated in one pass and all its responses go out
+ * in one write, in request order, so a client that sends many expressions at once gets them back as one batch.
+ * each connection runs on its own virtual thread when the runtime has them, on a pooled thread otherwise
+ * <pre>
+ * java CalculationServer radix [port]
+ * </pre>
+ */
+public class CalculationServer implements Closeable {
+    static final int DEFAULT_PORT = 7070;
+
+    /**
+     * per-connection buffer size for requests and responses
+     */
+    private static final int BUFFER = 1 << 16;
+
+    private final ServerSocketChannel server;
+    private final ExecutorService connections = connection_executor();
+    private final int base;
+
+    /**
+     * bind the server, connections are accepted by {@link #serve()} or {@link #start()}
+     * @param base expression radix, 2 to 36
+     * @param port TCP port, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     * @throws IllegalArgumentException if `base` is outside 2 to 36
+     */
+    public CalculationServer(int base, int port) throws IOException {
+        RadixFormat.check(base);
+        this.base = base;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: java CalculationServer radix [port]");
+            System.exit(2);
+        }
+        int base = Integer.parseInt(args[0]);
+        if (base < RadixFormat.MIN_RADIX || base > RadixFormat.MAX_RADIX) {
+            System.err.println("radix " + base + " is outside " + RadixFormat.MIN_RADIX + " to "
+                    + RadixFormat.MAX_RADIX);
+            System.exit(2);
+        }
+        int port = args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        try (CalculationServer server = new CalculationServer(base, port)) {
+            System.err.println("listening on port " + server.port());
+            server.serve();
+        }
+    }
+
+    /**
+     * @return bound port
+     * @throws IOException if the server is closed
+     */
+    public int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * accept connections on the calling thread until the server is closed
+     * @throws IOException if accepting fails for another reason than closing
+     */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                connections.execute(() -> connection(channel));
+            }
+        } catch (ClosedChannelException e) {
+            // closed by close()
+        }
+    }
+
+    /**
+     * accept connections on a background daemon thread
+     */
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            try {
+                serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, "calculation-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * stop accepting, open connections finish their current batch and are dropped
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdownNow();
+    }
+
+    /**
+     * answer every request of one connection until the client closes it
+     * @param channel connection
+     */
+    private void connection(SocketChannel channel) {
+        StreamCalculator stream = new StreamCalculator(base);
+        ByteBuffer requests = ByteBuffer.allocateDirect(BUFFER);
+        ByteBuffer responses = ByteBuffer.allocateDirect(BUFFER);
+        try (channel) {
+            while (channel.read(requests) != -1) {
+                requests.flip();
+                while (requests.hasRemaining()) {
+                    stream.process(requests, responses);
+                    if (responses.remaining() < StreamCalculator.MAX_LINE) {
+                        write(responses, channel);
+                    }
+                }
+                // a partial request stays pending in `stream`, answer what is complete
+                write(responses, channel);
+                requests.clear();
+            }
+            // a last request without newline is answered before closing
+            stream.flush(responses);
+            write(responses, channel);
+        } catch (IOException e) {
+            // client went away, nothing left to answer
+        }
+    }
+
+    private static void write(ByteBuffer responses, SocketChannel channel) throws IOException {
+        responses.flip();
+        while (responses.hasRemaining()) {
+            channel.write(responses);
+        }
+        responses.clear();
+    }
+
+    /**
+     * @return virtual-thread-per-task executor where the runtime supports it, cached daemon thread pool otherwise
+     */
+    private static ExecutorService connection_executor() {
+        try {
+            // looked up reflectively so the server still runs where virtual threads do not exist yet
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "calculation-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -1,16 +1,40 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Optional;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * calculator window for integer expressions in binary, octal, decimal and hexadecimal
+ * <p>
+ * system properties:
+ * <ul>
+ *     <li>`calculator.history`: history log file, `~/.calculator/history.log` by default; empty to keep no
+ *     history</li>
+ *     <li>`calculator.startup.probe`: when true, print `first paint` to standard output once, after the frame
+ *     is painted for the first time, and exit. used to time start-up, see bench/StartupBenchmark and
+ *     bench/appcds.sh</li>
+ * </ul>
+ */
 public class Calculator extends JFrame {
     static final int CLEAR = 0;         // for 'C' button index
     static final int BACKSPACE = 1;     // for '←' button index
@@ -19,27 +43,110 @@ public class Calculator extends JFrame {
     static final int MULTI = 4;         // for '*' button index
     static final int DIVIDE = 5;        // for '/' button index
     static final int EQUAL = 6;         // for '=' button index
+    static final int ASYNC_LENGTH = 4096;   // edits parsing more characters than this run off the EDT
+    static final int SEARCH_LIMIT = 1000;   // most history entries shown for a search
+    static final String FONT_NAME = "黑体";  // family of the universe font
+    static final boolean PROBE = Boolean.getBoolean("calculator.startup.probe");   // exit after the first paint
+    static final AtomicBoolean PROBE_REPORTED = new AtomicBoolean();    // the probe printed its line
     private final JFrame Self = this;   // reference for this object
     private JButton LeftParBtn;         // left parentheses button
     private JButton RightParBtn;        // right parentheses button
     private JButton ZeroBtn;            // number button: 0
     private JButton[] NumberButton;     // number buttons: 1 - 9
+    private JButton[] LetterButton;     // hexadecimal digit buttons: A - F
     private JButton[] OperatorButton;   // operator buttons
     private JRadioButton Oct;           // octal radix radio button
     private JRadioButton Dec;           // decimal radix radio button
     private JRadioButton Bin;           // binary radix radio button
+    private JRadioButton Hex;           // hexadecimal radix radio button
     private JTextPane Text;             // text area
+    private StyledDocument Doc;         // content of Text, edited at its end
+    private JLabel Preview;             // live result of Text
+    private IncrementalCalculation Input = new IncrementalCalculation(10, true);    // parse state of Text
+    private SwingWorker<IncrementalCalculation, Void> Worker;   // background parse of Text, null when Input is current
+    private boolean AnswerRequested;    // '=' was pressed while Worker runs
+    private boolean Stale;              // a background parse failed, Input does not hold Text until the next one
+    private HistoryLog History;         // calculation history, null until it is loaded or if it cannot be opened
+    private HistoryListModel HistoryItems;  // entries shown in HistoryList
+    private JList<String> HistoryList;  // history panel, renders only the visible entries
+    private JTextField HistorySearch;   // expression prefix filtering HistoryList
+    private JPanel HistoryPanel;        // history search field and list, filled in after the first paint
+    private SwingWorker<int[], Void> Searcher;  // background history search, null when none runs
     private Font UniFont;               // universe font in calculator
     private int Radix = 10;             // radix system
+    private boolean Painted;            // the frame was painted at least once
 
     public Calculator() {
-        ComponentInit();
+        this(CompletableFuture.completedFuture(TextDocumentInit()));
+    }
+
+    /**
+     * @param document empty document of `Text`, prepared while the other components are built
+     */
+    Calculator(CompletableFuture<StyledDocument> document) {
+        ComponentInit(document);
         SetComponentsLayout();
     }
 
-    public static void main(String[] args) {
-        Calculator c = new Calculator();
-        c.Execution();
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--server")) {
+            // headless mode: java Calculator --server radix [port]
+            CalculationServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // the font and the text classes load on other threads while the EDT builds the frame
+        CompletableFuture.runAsync(() -> FontWarmUp(new Font(FONT_NAME, Font.PLAIN, 20)));
+        CompletableFuture<StyledDocument> document = CompletableFuture.supplyAsync(Calculator::TextDocumentInit);
+        SwingUtilities.invokeLater(() -> new Calculator(document).Execution());
+    }
+
+    /**
+     * load the font file and the glyphs the calculator shows, which the first layout would otherwise do on
+     * the EDT; fonts of the same family share them
+     *
+     * @param font font to load
+     */
+    private static void FontWarmUp(Font font) {
+        font.getStringBounds("计算器二进制八进制十进制十六进制无效表达式0123456789ABCDEF()+-*/=←_X",
+                new FontRenderContext(null, true, true));
+    }
+
+    /**
+     * @return empty document of `Text`, right aligned; building it loads the styled text classes, so it is
+     * built off the EDT before `Text` needs it
+     */
+    private static StyledDocument TextDocumentInit() {
+        StyledDocument document = new DefaultStyledDocument();
+        SimpleAttributeSet right = new SimpleAttributeSet();
+        StyleConstants.setAlignment(right, StyleConstants.ALIGN_RIGHT);
+        document.setParagraphAttributes(0, document.getLength(), right, false);
+        return document;
+    }
+
+    /**
+     * paint the frame; after the first paint, build the history panel and open the history, which the first
+     * frame does not wait for
+     */
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (PROBE) {
+            // report the first paint once, however many repaints come before the exit
+            if (PROBE_REPORTED.compareAndSet(false, true)) {
+                System.out.println("first paint");
+                System.out.flush();
+                SwingUtilities.invokeLater(() -> System.exit(0));
+            }
+            return;
+        }
+        if (Painted) {
+            return;
+        }
+        Painted = true;
+        SwingUtilities.invokeLater(() -> {
+            HistoryInit();
+            LoadHistory();
+        });
     }
 
     /**
@@ -69,7 +176,7 @@ public class Calculator extends JFrame {
         });
         this.setUndecorated(true);
         this.setLocation(600, 350);
-        this.setSize(400, 500);
+        this.setSize(400, 640);
         this.setBackground(Color.WHITE);
         this.setResizable(false);
         this.setVisible(true);
@@ -90,7 +197,21 @@ public class Calculator extends JFrame {
             NumberButton[idx].setFocusPainted(false);
             NumberButton[idx].setBackground(Color.WHITE);
             NumberButton[idx].addActionListener(e -> {
-                Text.setText(Text.getText() + NumberButton[idx].getText());
+                AppendText(NumberButton[idx].getText());
+                Text.requestFocusInWindow();
+            });
+        }
+        LetterButton = new JButton[6];
+        for (InitIdx = 0; InitIdx < LetterButton.length; ++InitIdx) {
+            int idx = InitIdx;
+            LetterButton[idx] = new JButton(String.valueOf((char) ('A' + idx)));
+            LetterButton[idx].setFont(UniFont);
+            LetterButton[idx].setBorderPainted(false);
+            LetterButton[idx].setFocusPainted(false);
+            LetterButton[idx].setBackground(Color.WHITE);
+            LetterButton[idx].setEnabled(false);     // letters are digits in hexadecimal only
+            LetterButton[idx].addActionListener(e -> {
+                AppendText(LetterButton[idx].getText());
                 Text.requestFocusInWindow();
             });
         }
@@ -103,7 +224,7 @@ public class Calculator extends JFrame {
         ZeroBtn.setBorderPainted(false);
         ZeroBtn.setFocusPainted(false);
         ZeroBtn.addActionListener(e -> {
-            Text.setText(Text.getText() + "0");
+            AppendText("0");
             Text.requestFocusInWindow();
         });
 
@@ -112,7 +233,7 @@ public class Calculator extends JFrame {
         LeftParBtn.setBorderPainted(false);
         LeftParBtn.setFocusPainted(false);
         LeftParBtn.addActionListener(e -> {
-            Text.setText(Text.getText() + "(");
+            AppendText("(");
             Text.requestFocusInWindow();
         });
 
@@ -121,7 +242,7 @@ public class Calculator extends JFrame {
         RightParBtn.setBorderPainted(false);
         RightParBtn.setFocusPainted(false);
         RightParBtn.addActionListener(e -> {
-            Text.setText(Text.getText() + ")");
+            AppendText(")");
             Text.requestFocusInWindow();
         });
 
@@ -148,8 +269,8 @@ public class Calculator extends JFrame {
                     case "←" ->             // if users click '←' button,
                             DropLastChar();     // drop the last character of Text
                     case "C" ->             // if users click 'C' button, clear Text
-                            Text.setText("");
-                    default -> Text.setText(Text.getText() + OperatorButton[idx].getText());
+                            SetText("");
+                    default -> AppendText(OperatorButton[idx].getText());
                     // if users click other buttons,
                     // Text appends button's number or operator directly
                 }
@@ -162,48 +283,52 @@ public class Calculator extends JFrame {
      * initialize radio buttons on the left panel
      */
     private void RadioButtonsInit() {
-        // Bin, Oct and Dec JRadioButtons initialization
+        // Bin, Oct, Dec and Hex JRadioButtons initialization
         // use ButtonGroup to make sure that only one radix
         // radio button is selected at the same time
         ButtonGroup RadixGroup = new ButtonGroup();
         Bin = new JRadioButton("二进制");
         Oct = new JRadioButton("八进制");
         Dec = new JRadioButton("十进制");
+        Hex = new JRadioButton("十六进制");
         Bin.setFocusPainted(false);
         Oct.setFocusPainted(false);
         Dec.setFocusPainted(false);
+        Hex.setFocusPainted(false);
         RadixGroup.add(Bin);
         RadixGroup.add(Oct);
         RadixGroup.add(Dec);
+        RadixGroup.add(Hex);
 
         // Decimal is the default radix, so let radix = 10 firstly
         Radix = 10;
         Bin.setSelected(false);
         Oct.setSelected(false);
         Dec.setSelected(true);
+        Hex.setSelected(false);
         Bin.setBackground(Color.WHITE);
         Oct.setBackground(Color.WHITE);
         Dec.setBackground(Color.WHITE);
+        Hex.setBackground(Color.WHITE);
 
-        Bin.addActionListener(e -> BinSelected());
-        Oct.addActionListener(e -> OctSelected());
-        Dec.addActionListener(e -> DecSelected());
+        Bin.addActionListener(e -> RadixSelected(2));
+        Oct.addActionListener(e -> RadixSelected(8));
+        Dec.addActionListener(e -> RadixSelected(10));
+        Hex.addActionListener(e -> RadixSelected(16));
     }
 
     /**
      * initialize text component
+     *
+     * @param document empty document of `Text`, right aligned
      */
-    private void TextInit() {
+    private void TextInit(CompletableFuture<StyledDocument> document) {
         // Text JTextPane initialization
-        Text = new JTextPane();
+        Doc = document.join();
+        Text = new JTextPane(Doc);
         Text.setFont(UniFont);
         Text.setAutoscrolls(true);
 
-        StyledDocument doc = Text.getStyledDocument();
-        SimpleAttributeSet right = new SimpleAttributeSet();
-        StyleConstants.setAlignment(right, StyleConstants.ALIGN_RIGHT);
-        doc.setParagraphAttributes(0, doc.getLength(), right, false);
-
         // Text can't be edited by users themselves
         Text.setEditable(false);
 
@@ -212,36 +337,29 @@ public class Calculator extends JFrame {
 
         // set Text size
         Text.setPreferredSize(new Dimension(400, 60));
+
+        // Preview shows the result of Text while the user types
+        Preview = new JLabel("", SwingConstants.RIGHT);
+        Preview.setFont(UniFont.deriveFont(14f));
+        Preview.setForeground(Color.GRAY);
         Text.requestFocusInWindow();
         Text.addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
                 char Input = e.getKeyChar();
-                switch (Radix) {
-                    case 2 -> {     // binary input: 0 - 1 and +,- operators are valid
-                        if (Input == '0' || Input == '1' || Input == '+' || Input == '-') {
-                            Text.setText(Text.getText() + Input);
-                        }
-                    }
-                    case 8 -> {     // octal input: 0 - 7 and +,- operators are valid
-                        if (Input >= '0' && Input <= '7' || Input == '+' || Input == '-') {
-                            Text.setText(Text.getText() + Input);
-                        }
-                    }
-                    case 10 -> {    // decimal input: 0 - 9 and +,- operators are valid
-                        if (Input >= '0' && Input <= '9' || Input == '+' || Input == '-') {
-                            Text.setText(Text.getText() + Input);
-                        }
-                    }
-                }
-                if (Input == '(' || Input == ')') {
-                    Text.setText(Text.getText() + Input);
+                // digits of the radix, +,- operators and the letters of the 0b, 0o and 0x prefixes are valid;
+                // a digit goes first, so in hexadecimal 'c' is a digit and Esc clears Text
+                if (Input < 128 && Character.digit(Input, Radix) != -1 || Input == '+' || Input == '-'
+                        || "bBoOxX".indexOf(Input) != -1) {
+                    AppendText(String.valueOf(Input));
+                } else if (Input == '(' || Input == ')') {
+                    AppendText(String.valueOf(Input));
                 } else if (Input == '\n' || Input == '=') { // show answer
                     AnswerDisplay();
                 } else if (Input == '\b') {          // backspace
                     DropLastChar();
                 } else if (Input == 'c' || Input == 'C') {   // clear Text
-                    Text.setText("");
+                    SetText("");
                 } else if (Input == 31) {
                     // Ctrl + A == (ASCII)31
                     // select all content in Text
@@ -249,7 +367,7 @@ public class Calculator extends JFrame {
                 } else if (Input == 3) {
                     // Ctrl + C == (ASCII)3
                     // copy selected content in Text
-                    if (!Text.getText().isEmpty()) {    // make sure the Text is not empty firstly
+                    if (Doc.getLength() != 0) {         // make sure the Text is not empty firstly
                         if (Text.getSelectedText() == null) {
                             // if nothing is selected, select all
                             Text.selectAll();
@@ -260,9 +378,20 @@ public class Calculator extends JFrame {
                         Clipboard Clip = Toolkit.getDefaultToolkit().getSystemClipboard();
                         Clip.setContents(Selection, null);
                     }
+                } else if (Input == 22) {
+                    // Ctrl + V == (ASCII)22
+                    // append clipboard content to Text, long content is parsed in the background
+                    Clipboard Clip = Toolkit.getDefaultToolkit().getSystemClipboard();
+                    if (Clip.isDataFlavorAvailable(DataFlavor.stringFlavor)) {
+                        try {
+                            AppendText((String) Clip.getData(DataFlavor.stringFlavor));
+                        } catch (UnsupportedFlavorException | IOException ignored) {
+                            // clipboard changed in between, nothing to paste
+                        }
+                    }
                 } else if (Input == 27) {
                     // if content is not empty, clear the Text
-                    Text.setText("");
+                    SetText("");
                 }
                 Text.requestFocusInWindow();
             }
@@ -271,15 +400,65 @@ public class Calculator extends JFrame {
 
 
     /**
-     * initialize all components
+     * initialize the components of the first frame, the history panel is filled in after it is painted
+     *
+     * @param document empty document of `Text`, right aligned
      */
-    private void ComponentInit() {
+    private void ComponentInit(CompletableFuture<StyledDocument> document) {
         // set universal font in calculator
-        UniFont = new Font("黑体", Font.PLAIN, 20);
+        UniFont = new Font(FONT_NAME, Font.PLAIN, 20);
 
         ButtonsInit();      // initial buttons
         RadioButtonsInit(); // initial radio buttons
-        TextInit();         // initial Text
+        TextInit(document); // initial Text, last, so its document is ready
+    }
+
+    /**
+     * fill in the history panel, its entries are loaded by LoadHistory
+     */
+    private void HistoryInit() {
+        HistoryItems = new HistoryListModel();
+        HistoryList = new JList<>(HistoryItems);
+        HistoryList.setFont(UniFont.deriveFont(14f));
+        // fixed cell sizes let JList lay out millions of entries without rendering them
+        HistoryList.setFixedCellHeight(22);
+        HistoryList.setFixedCellWidth(360);
+        HistoryList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        HistoryList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                // double click puts the expression back into Text
+                int row = HistoryList.locationToIndex(e.getPoint());
+                if (e.getClickCount() == 2 && row != -1) {
+                    RecallHistory(HistoryItems.EntryAt(row));
+                }
+            }
+        });
+
+        HistorySearch = new JTextField();
+        HistorySearch.setFont(UniFont.deriveFont(14f));
+        HistorySearch.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                SearchHistory(HistorySearch.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                SearchHistory(HistorySearch.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+
+        // history search field above the history list
+        JScrollPane HistoryScroll = new JScrollPane(HistoryList);
+        HistoryScroll.setBorder(BorderFactory.createEmptyBorder());
+        HistoryPanel.add(HistorySearch, BorderLayout.NORTH);
+        HistoryPanel.add(HistoryScroll, BorderLayout.CENTER);
+        HistoryPanel.revalidate();
     }
 
     /**
@@ -299,6 +478,7 @@ public class Calculator extends JFrame {
         RadixPanel.add(Dec);
         RadixPanel.add(Oct);
         RadixPanel.add(Bin);
+        RadixPanel.add(Hex);
         RadixPanel.setBackground(Color.WHITE);
 
         // ratio buttons are at BorderLayout.West
@@ -322,11 +502,12 @@ public class Calculator extends JFrame {
         GridLayout MenuButtonLayout = new GridLayout(1, 5);
         GridLayout TextLayout = new GridLayout(2, 1);
         MenuLayout.setRows(2);
-        FrameTitle.setFont(new Font("黑体", Font.PLAIN, 20));
+        FrameTitle.setFont(UniFont);
         CloseButton.setFocusPainted(false);
         CloseButton.setBorderPainted(false);
         CloseButton.setBackground(Color.WHITE);
         CloseButton.addActionListener(actionEvent -> {
+            CloseHistory();
             Self.dispose();
             System.exit(0);     // exit the program
         });
@@ -350,6 +531,7 @@ public class Calculator extends JFrame {
         MenuPanel.add(FrameTitle);
         MenuPanel.add(MenuButtonPanel);
         MenuPanel.add(MenuBar);
+        MenuPanel.add(Preview);
         TextPanel.add(MenuPanel);
         TextPanel.add(Text);
         TextPanel.setLayout(TextLayout);
@@ -358,15 +540,20 @@ public class Calculator extends JFrame {
 
         // set number buttons grid layout
         JPanel NumbersPanel = new JPanel();
-        GridLayout numbersLayout = new GridLayout(4, 3);
+        GridLayout numbersLayout = new GridLayout(6, 3);
         NumbersPanel.setLayout(numbersLayout);
 
         /* add number buttons to panel as following position:
+         *               A  B  C
+         *               D  E  F
          *               7  8  9
          *               4  5  6
          *               1  2  3
          *               (  0  )
          * */
+        for (JButton Letter : LetterButton) {
+            NumbersPanel.add(Letter);
+        }
         for (int row = 0; row < 3; ++row) {
             for (int col = 0; col < 3; ++col) {
                 NumbersPanel.add(NumberButton[row * 3 + 2 - col]);
@@ -392,6 +579,14 @@ public class Calculator extends JFrame {
 
         // operator buttons are at BorderLayout East
         this.add(OperatorPanel, BorderLayout.EAST);
+
+        // history panel keeps its place and is filled in by HistoryInit after the first paint
+        HistoryPanel = new JPanel(new BorderLayout());
+        HistoryPanel.setPreferredSize(new Dimension(400, 140));
+        HistoryPanel.setBackground(Color.WHITE);
+
+        // history is at BorderLayout South
+        this.add(HistoryPanel, BorderLayout.SOUTH);
     }
 
     /**
@@ -401,83 +596,406 @@ public class Calculator extends JFrame {
      * answer is empty when expression is invalid
      */
     private Optional<Integer> GetTextAns() {
-        return Calculation.calculate(Text.getText(), Radix);
+        return Input.preview();
     }
 
     /**
      * calculation and display result
      */
     private void AnswerDisplay() {
-        Optional<Integer> ret = GetTextAns();
-        Text.setText("");
+        if (Stale) {
+            Reparse();      // Input lost Text, parse it again and answer then
+            AnswerRequested = true;
+            return;
+        }
+        if (Worker != null) {
+            // Text is still being parsed; an expression already in the history is answered at once,
+            // otherwise the answer is displayed when the parse is done
+            int known = FindHistory();
+            if (known != -1) {
+                ShowAnswer(History.get(known).result());
+                return;
+            }
+            AnswerRequested = true;
+            return;
+        }
+        ShowAnswer(GetTextAns());
+    }
+
+    /**
+     * record `Text` with its answer in the history, then replace `Text` by the answer
+     *
+     * @param ret answer of `Text`, empty when `Text` is invalid
+     */
+    private void ShowAnswer(Optional<Integer> ret) {
+        AddHistory(ret);
         // judge whether ret has value
         if (ret.isPresent()) {
-            int result = ret.get();
-            if (result < 0) {
-                Text.setText(Text.getText() + '-');
+            SetText(FormatAnswer(ret.get()));
+        } else {
+            SetText("无效表达式");
+        }
+    }
+
+    /**
+     * format an answer in the current radix
+     *
+     * @param result answer
+     * @return answer text
+     */
+    private String FormatAnswer(int result) {
+        return FormatAnswer(result, Radix);
+    }
+
+    /**
+     * format an answer in `radix`
+     *
+     * @param result answer
+     * @param radix radix system
+     * @return answer text
+     */
+    private static String FormatAnswer(int result, int radix) {
+        // a negative answer is '-' and its magnitude, like the input, never a two's complement bit pattern
+        return RadixFormat.toString(result, radix, true);
+    }
+
+    /**
+     * append `str` to `Text` in place, only the appended characters are parsed
+     *
+     * @param str characters to append
+     */
+    private void AppendText(String str) {
+        boolean async = Stale || Worker != null || str.length() > ASYNC_LENGTH;
+        CancelWorker();     // a running parse holds the read lock of Doc
+        try {
+            Doc.insertString(Doc.getLength(), str, null);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);     // the end of a document is always a valid offset
+        }
+        if (async) {
+            Reparse();
+        } else {
+            Input.append(str);
+            UpdatePreview();
+        }
+    }
+
+    /**
+     * replace `Text` content
+     *
+     * @param str new content
+     */
+    private void SetText(String str) {
+        CancelWorker();
+        Text.setText(str);
+        if (str.length() > ASYNC_LENGTH) {
+            Reparse();
+        } else {
+            Input.setText(str);
+            Stale = false;
+            UpdatePreview();
+        }
+    }
+
+    /**
+     * parse the whole `Text` on a background thread, cancelling a parse that is still running;
+     * the EDT only shows a calculating state until the new parse state replaces `Input`
+     */
+    private void Reparse() {
+        CancelWorker();
+        int radix = Radix;
+        Preview.setText("计算中…");
+        Worker = new SwingWorker<>() {
+            @Override
+            protected IncrementalCalculation doInBackground() {
+                // read Doc in place under its read lock, edits on the EDT cancel this parse before
+                // they wait for the lock, and an interrupted parse stops early, its result is never used
+                IncrementalCalculation next = new IncrementalCalculation(radix, true);
+                next.setCancellable(true);
+                Doc.render(() -> {
+                    DocumentText text = new DocumentText(Doc);
+                    for (int i = 0; i < text.length() && !isCancelled(); i++) {
+                        next.append(text.charAt(i));
+                    }
+                });
+                // the EDT edits the result from here on, its evaluations must not depend on an interrupt
+                next.setCancellable(false);
+                return next;
             }
-            switch (Radix) {
-                // Text displays different answer according to the radix
-                case 2 -> Text.setText(Text.getText() + Integer.toBinaryString(result));
-                case 8 -> Text.setText(Text.getText() + Integer.toOctalString(result));
-                case 10 -> Text.setText(Integer.toString(result));
+
+            @Override
+            protected void done() {
+                if (Worker != this) {
+                    return;     // a newer parse replaced this one
+                }
+                Worker = null;
+                try {
+                    Input = get();
+                    Stale = false;
+                } catch (Exception e) {
+                    // Input no longer matches Text, the next edit or answer parses all of Text again
+                    Input.reset(Radix);
+                    Stale = true;
+                    Preview.setText("");
+                    return;
+                }
+                if (AnswerRequested) {
+                    AnswerDisplay();
+                } else {
+                    UpdatePreview();
+                }
             }
-        } else {
-            Text.setText("无效表达式");
+        };
+        Worker.execute();
+    }
+
+    /**
+     * cancel the background parse, if any
+     */
+    private void CancelWorker() {
+        if (Worker != null) {
+            Worker.cancel(true);
+            Worker = null;
         }
+        AnswerRequested = false;
+    }
+
+    /**
+     * show the result of `Text` as it stands, nothing when it is not a valid expression yet
+     */
+    private void UpdatePreview() {
+        Optional<Integer> ret = GetTextAns();
+        Preview.setText(ret.isPresent() ? "= " + FormatAnswer(ret.get()) : "");
     }
 
     /**
      * drop `Text` last character
      */
     private void DropLastChar() {
-        String str = Text.getText();
-        if (!str.isEmpty()) {
-            Text.setText(str.substring(0, str.length() - 1));
+        if (Doc.getLength() != 0) {
+            boolean async = Stale || Worker != null;
+            CancelWorker();     // a running parse holds the read lock of Doc
+            try {
+                Doc.remove(Doc.getLength() - 1, 1);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);     // the last character always exists here
+            }
+            if (async) {
+                Reparse();
+            } else {
+                Input.dropLast();
+                UpdatePreview();
+            }
         }
     }
 
     /**
-     * for decimal mode
+     * switch the input and answer radix
+     *
+     * @param radix radix system: 2, 8, 10 or 16
      */
-    private void DecSelected() {
-        Radix = 10;                 // set radix = 10
-        Text.setText("");           // clear Text
-
-        // enable all buttons
-        for (int i = 0; i < 9; ++i) {
-            NumberButton[i].setEnabled(true);
+    private void RadixSelected(int radix) {
+        Radix = radix;              // set radix
+        Input.reset(Radix);         // parse Text in the new radix
+        SetText("");                // clear Text
+
+        // enable the buttons of the digits of the radix only
+        for (JButton Number : NumberButton) {
+            Number.setEnabled(Character.digit(Number.getText().charAt(0), Radix) != -1);
+        }
+        for (JButton Letter : LetterButton) {
+            Letter.setEnabled(Character.digit(Letter.getText().charAt(0), Radix) != -1);
         }
         Text.requestFocusInWindow();
     }
 
     /**
-     * for octal hex mode
+     * open the history log on a background thread, the history panel fills in when it is open
+     */
+    private void LoadHistory() {
+        String file = System.getProperty("calculator.history",
+                Path.of(System.getProperty("user.home"), ".calculator", "history.log").toString());
+        if (file.isEmpty()) {
+            return;     // -Dcalculator.history= turns the history off
+        }
+        new SwingWorker<HistoryLog, Void>() {
+            @Override
+            protected HistoryLog doInBackground() throws IOException {
+                return HistoryLog.open(Path.of(file));
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    History = get();
+                } catch (Exception e) {
+                    return;     // no history this time, the calculator works without it
+                }
+                HistoryItems.Show(History, null);
+                SearchHistory(HistorySearch.getText());
+            }
+        }.execute();
+    }
+
+    /**
+     * add `Text` and its answer to the history
+     *
+     * @param ret answer of `Text`, empty when `Text` is invalid
+     */
+    private void AddHistory(Optional<Integer> ret) {
+        if (History == null || Doc.getLength() == 0 || Doc.getLength() > HistoryLog.MAX_EXPRESSION) {
+            return;
+        }
+        try {
+            if (History.append(Text.getText(), Radix, ret) == -1) {
+                return;     // too long to keep
+            }
+            if (HistorySearch.getText().isEmpty()) {
+                HistoryItems.Added();
+            } else {
+                SearchHistory(HistorySearch.getText());
+            }
+        } catch (IOException e) {
+            CloseHistory();     // the log cannot grow any more, stop recording
+        }
+    }
+
+    /**
+     * @return newest history entry of `Text` in the current radix, -1 when there is none
      */
-    private void OctSelected() {
-        Radix = 8;                  // set radix = 8
-        Text.setText("");           // clear Text
+    private int FindHistory() {
+        if (History == null || Doc.getLength() == 0 || Doc.getLength() > HistoryLog.MAX_EXPRESSION) {
+            return -1;
+        }
+        return History.find(Text.getText(), Radix);
+    }
 
-        // disable number button 8 and number button 9
-        NumberButton[0].setEnabled(false);
-        NumberButton[1].setEnabled(false);
-        for (int i = 2; i < 9; ++i) {
-            NumberButton[i].setEnabled(true);
+    /**
+     * put a history entry back into `Text`, switching to its radix first
+     *
+     * @param entry history entry
+     */
+    private void RecallHistory(HistoryLog.Entry entry) {
+        if (entry.radix() != Radix) {
+            switch (entry.radix()) {
+                case 2 -> Bin.doClick();
+                case 8 -> Oct.doClick();
+                case 16 -> Hex.doClick();
+                default -> Dec.doClick();
+            }
         }
+        SetText(entry.expression());
         Text.requestFocusInWindow();
     }
 
     /**
-     * for binary mode
+     * show the history entries starting with `prefix`, searched on a background thread
+     *
+     * @param prefix expression prefix, empty for the whole history
      */
-    private void BinSelected() {
-        Radix = 2;                  // set radix = 2
-        Text.setText("");           // clear Text
+    private void SearchHistory(String prefix) {
+        if (Searcher != null) {
+            Searcher.cancel(true);
+            Searcher = null;
+        }
+        if (History == null) {
+            return;
+        }
+        if (prefix.isEmpty()) {
+            HistoryItems.Show(History, null);
+            return;
+        }
+        HistoryLog log = History;
+        Searcher = new SwingWorker<>() {
+            @Override
+            protected int[] doInBackground() {
+                return log.search(prefix, SEARCH_LIMIT);
+            }
 
-        // disable number buttons from 2 to 9
-        for (int i = 0; i != 8; ++i) {
-            NumberButton[i].setEnabled(false);
+            @Override
+            protected void done() {
+                if (Searcher != this) {
+                    return;     // a newer search replaced this one
+                }
+                Searcher = null;
+                try {
+                    HistoryItems.Show(log, get());
+                } catch (Exception ignored) {
+                    // the search failed, the list keeps what it shows
+                }
+            }
+        };
+        Searcher.execute();
+    }
+
+    /**
+     * write the history to its file and stop recording
+     */
+    private void CloseHistory() {
+        if (History != null) {
+            try {
+                History.close();
+            } catch (IOException ignored) {
+                // the mapped pages reach the file anyway when the process exits
+            }
+            History = null;
+        }
+    }
+
+    /**
+     * entries of the history panel, newest first; an entry is read from the log only when its row is painted
+     */
+    private static final class HistoryListModel extends AbstractListModel<String> {
+        private HistoryLog Log;         // history log, null before it is loaded
+        private int[] Found;            // entry indexes of a search, null to show the whole log
+        private int Size;               // rows shown
+
+        /**
+         * show `log`, or only the entries of a search
+         *
+         * @param log history log
+         * @param found entry indexes, null for all entries
+         */
+        void Show(HistoryLog log, int[] found) {
+            int old = Size;
+            Log = log;
+            Found = found;
+            Size = found != null ? found.length : log.size();
+            if (old != 0) {
+                fireIntervalRemoved(this, 0, old - 1);
+            }
+            if (Size != 0) {
+                fireIntervalAdded(this, 0, Size - 1);
+            }
+        }
+
+        /**
+         * one entry was appended to the log shown in full
+         */
+        void Added() {
+            Size++;
+            fireIntervalAdded(this, 0, 0);
+        }
+
+        /**
+         * @param row row index
+         * @return history entry of `row`
+         */
+        HistoryLog.Entry EntryAt(int row) {
+            return Log.get(Found != null ? Found[row] : Log.size() - 1 - row);
+        }
+
+        @Override
+        public int getSize() {
+            return Size;
+        }
+
+        @Override
+        public String getElementAt(int row) {
+            HistoryLog.Entry entry = EntryAt(row);
+            Optional<Integer> ret = entry.result();
+            String answer = ret.isPresent() ? FormatAnswer(ret.get(), entry.radix()) : "无效表达式";
+            return entry.expression() + " = " + answer;
         }
-        Text.requestFocusInWindow();
     }
 }
@@ -0,0 +1,248 @@
+import java.util.Arrays;
+
+/**
+ * runs the postfix code of a {@link CompiledExpression} over columns of variable values, for
+ * {@link CompiledExpression#evaluateColumns(int, int[]...)}
+ * <p>
+ * rows are taken in blocks of {@link #BLOCK}, and each opcode is applied to the whole block before the next
+ * one, so the work per row is a few array loads and stores instead of a trip through the interpreter loop.
+ * the loops are plain indexed loops over `int[]` starting at index 0, the shape C2 turns into SIMD code by
+ * itself; an offset into a larger array is enough to make it fall back to scalar code, so the block of every
+ * variable is first copied out of its column. stack entries stay lazy as long as they can: a constant or a
+ * variable on the right of an operator is read directly from the code word or the variable block, and only an
+ * entry that an operator writes to is copied into a register block.
+ * a division by zero marks its row invalid and divides by 1 instead, so one bad row does not stop the block
+ */
+final class ColumnarEvaluator {
+    /**
+     * rows per block, a multiple of 64 so every block starts on a word of the validity bitmap. the registers
+     * of a block stay in L1 for any reasonable depth
+     */
+    static final int BLOCK = 1024;
+
+    private static final int REGISTER = 0;      // entry is in its register block
+    private static final int CONSTANT = 1;      // entry is the same value on every row
+    private static final int COLUMN = 2;        // entry is a variable column
+
+    private final int[] code;
+    private final int[][] columns;
+
+    /**
+     * per variable slot: its rows of the block, null if the code never loads it
+     */
+    private final int[][] inputs;
+
+    /**
+     * one block per stack entry
+     */
+    private final int[][] registers;
+
+    /**
+     * per stack entry: {@link #REGISTER}, {@link #CONSTANT} or {@link #COLUMN}
+     */
+    private final int[] kind;
+
+    /**
+     * per stack entry: the value of a constant, the slot of a column
+     */
+    private final int[] operand;
+
+    /**
+     * per row of the block: true if it divided by zero
+     */
+    private final boolean[] failed = new boolean[BLOCK];
+
+    /**
+     * rows in the block
+     */
+    private int n;
+
+    private ColumnarEvaluator(CompiledExpression expression, int rows, int[][] columns) {
+        code = expression.code;
+        this.columns = columns;
+        int size = Math.min(rows, BLOCK);
+        inputs = new int[columns.length][];
+        for (int pc = 0; pc < code.length; pc++) {
+            if (code[pc] == CompiledExpression.PUSH) {
+                pc++;
+            } else if (code[pc] == CompiledExpression.LOAD && inputs[code[++pc]] == null) {
+                inputs[code[pc]] = new int[size];
+            }
+        }
+        registers = new int[expression.depth][size];
+        kind = new int[expression.depth];
+        operand = new int[expression.depth];
+    }
+
+    /**
+     * @param expression compiled expression
+     * @param rows number of rows
+     * @param columns variable values, column `i` holds slot `i` of every row and has at least `rows` entries
+     * @return result and validity of every row
+     */
+    static BatchResult evaluate(CompiledExpression expression, int rows, int[][] columns) {
+        BatchResult result = new BatchResult(rows);
+        ColumnarEvaluator evaluator = new ColumnarEvaluator(expression, rows, columns);
+        for (int from = 0; from < rows; from += BLOCK) {
+            evaluator.block(from, Math.min(BLOCK, rows - from), result);
+        }
+        return result;
+    }
+
+    /**
+     * evaluate rows `from` to `from + n` into `result`
+     */
+    private void block(int from, int n, BatchResult result) {
+        this.n = n;
+        for (int slot = 0; slot < inputs.length; slot++) {
+            if (inputs[slot] != null) {
+                System.arraycopy(columns[slot], from, inputs[slot], 0, n);
+            }
+        }
+        boolean anyFailed = false;
+        int top = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CompiledExpression.PUSH -> {
+                    kind[top] = CONSTANT;
+                    operand[top++] = code[++pc];
+                }
+                case CompiledExpression.LOAD -> {
+                    kind[top] = COLUMN;
+                    operand[top++] = code[++pc];
+                }
+                case CompiledExpression.NEG -> negate(materialize(top - 1));
+                default -> {
+                    int rhs = --top;
+                    int[] lhs = materialize(top - 1);
+                    if (kind[rhs] == CONSTANT) {
+                        anyFailed |= apply(code[pc], lhs, operand[rhs]);
+                    } else if (kind[rhs] == COLUMN) {
+                        anyFailed |= apply(code[pc], lhs, inputs[operand[rhs]]);
+                    } else {
+                        anyFailed |= apply(code[pc], lhs, registers[rhs]);
+                    }
+                }
+            }
+        }
+
+        int[] values = result.values;
+        switch (kind[0]) {
+            case CONSTANT -> Arrays.fill(values, from, from + n, operand[0]);
+            case COLUMN -> System.arraycopy(columns[operand[0]], from, values, from, n);
+            default -> System.arraycopy(registers[0], 0, values, from, n);
+        }
+
+        long[] valid = result.valid;
+        int word = from >>> 6;
+        if (!anyFailed) {
+            int full = n >>> 6;
+            Arrays.fill(valid, word, word + full, -1L);
+            if ((n & 63) != 0) {
+                valid[word + full] = (1L << (n & 63)) - 1;
+            }
+            return;
+        }
+        for (int r = 0; r < n; r++) {
+            if (failed[r]) {
+                values[from + r] = 0;
+                failed[r] = false;
+            } else {
+                valid[word + (r >>> 6)] |= 1L << r;
+            }
+        }
+    }
+
+    /**
+     * copy a lazy stack entry into its register block
+     * @param entry stack entry
+     * @return register block of `entry`
+     */
+    private int[] materialize(int entry) {
+        int[] register = registers[entry];
+        if (kind[entry] == CONSTANT) {
+            Arrays.fill(register, 0, n, operand[entry]);
+        } else if (kind[entry] == COLUMN) {
+            System.arraycopy(inputs[operand[entry]], 0, register, 0, n);
+        }
+        kind[entry] = REGISTER;
+        return register;
+    }
+
+    private void negate(int[] a) {
+        for (int r = 0; r < n; r++) {
+            a[r] = -a[r];
+        }
+    }
+
+    /**
+     * `a[r] = a[r] op b[r]` for every row of the block
+     * @return true if a row divided by zero
+     */
+    private boolean apply(int op, int[] a, int[] b) {
+        switch (op) {
+            case CompiledExpression.ADD -> {
+                for (int r = 0; r < n; r++) {
+                    a[r] += b[r];
+                }
+            }
+            case CompiledExpression.SUB -> {
+                for (int r = 0; r < n; r++) {
+                    a[r] -= b[r];
+                }
+            }
+            case CompiledExpression.MUL -> {
+                for (int r = 0; r < n; r++) {
+                    a[r] *= b[r];
+                }
+            }
+            default -> {
+                boolean zero = false;
+                for (int r = 0; r < n; r++) {
+                    int divisor = b[r];
+                    if (divisor == 0) {
+                        failed[r] = zero = true;
+                        divisor = 1;
+                    }
+                    a[r] /= divisor;
+                }
+                return zero;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * `a[r] = a[r] op c` for every row of the block
+     * @return true if `c` is a zero divisor
+     */
+    private boolean apply(int op, int[] a, int c) {
+        switch (op) {
+            case CompiledExpression.ADD -> {
+                for (int r = 0; r < n; r++) {
+                    a[r] += c;
+                }
+            }
+            case CompiledExpression.SUB -> {
+                for (int r = 0; r < n; r++) {
+                    a[r] -= c;
+                }
+            }
+            case CompiledExpression.MUL -> {
+                for (int r = 0; r < n; r++) {
+                    a[r] *= c;
+                }
+            }
+            default -> {
+                if (c == 0) {
+                    Arrays.fill(failed, 0, n, true);
+                    return true;
+                }
+                for (int r = 0; r < n; r++) {
+                    a[r] /= c;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,239 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Optional;
+
+/**
+ * immutable postfix form of an expression, built by {@link Calculation#compile(String, int, String...)}
+ * <p>
+ * the code is a flat `int[]` of opcodes, {@link #PUSH} and {@link #LOAD} are followed by their operand;
+ * evaluating it is pure arithmetic, and one instance can be shared by any number of threads. an expression
+ * evaluated {@link #JIT_THRESHOLD} times is translated to a {@link Kernel} and runs as bytecode from then on,
+ * unless it reads no variable: constant code is folded to a push or two, which a kernel cannot beat
+ */
+public final class CompiledExpression {
+    /**
+     * evaluations before the code is translated to bytecode, `-Dcalculation.jit.threshold`; 0 or less never does
+     */
+    static final int JIT_THRESHOLD = Integer.getInteger("calculation.jit.threshold", 10_000);
+
+    static final int PUSH = 0;      // push the next code word
+    static final int ADD = 1;       // lhs + rhs
+    static final int SUB = 2;       // lhs - rhs
+    static final int MUL = 3;       // lhs * rhs
+    static final int DIV = 4;       // lhs / rhs, invalid when rhs is zero
+    static final int LOAD = 5;      // push the variable in the slot given by the next code word
+    static final int NEG = 6;       // -operand
+
+    private static final VarHandle TRANSLATING;
+
+    static {
+        try {
+            TRANSLATING = MethodHandles.lookup().findVarHandle(CompiledExpression.class, "translating", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * postfix code
+     */
+    final int[] code;
+
+    /**
+     * number stack size needed to run `code`
+     */
+    final int depth;
+
+    /**
+     * number of tokens of the source expression
+     */
+    final int tokens;
+
+    /**
+     * evaluations left until {@link #JIT_THRESHOLD}, racy on purpose: a lost update only delays the translation,
+     * and threads that reach 0 together are sorted out by {@link #translating}. 0 from the start for code
+     * without variables
+     */
+    private int countdown;
+
+    /**
+     * set by the one thread that translates the code in {@link #tier()}
+     */
+    private volatile boolean translating;
+
+    /**
+     * bytecode translation, null until it exists
+     */
+    private volatile Kernel kernel;
+
+    /**
+     * source expression
+     */
+    private final String expression;
+
+    /**
+     * source expression radix
+     */
+    private final int base;
+
+    /**
+     * variable names, slot order
+     */
+    private final String[] variables;
+
+    CompiledExpression(String expression, int base, String[] variables, int[] code, int depth, int tokens) {
+        this.expression = expression;
+        this.base = base;
+        this.variables = variables;
+        this.code = code;
+        this.depth = depth;
+        this.tokens = tokens;
+        this.countdown = loads(code) ? JIT_THRESHOLD : 0;
+    }
+
+    /**
+     * @param code postfix code
+     * @return true if `code` reads a variable
+     */
+    private static boolean loads(int[] code) {
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case LOAD -> {
+                    return true;
+                }
+                case PUSH -> pc++;
+                default -> {
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * evaluate on the current thread's evaluator
+     * @param values variable values indexed by slot
+     * @return if expression is valid, return result; otherwise return Optional.empty()
+     */
+    public Optional<Integer> evaluate(int... values) {
+        Calculation calc = Calculation.local();
+        return calc.evaluate(this, values) ? Optional.of(calc.value()) : Optional.empty();
+    }
+
+    /**
+     * evaluate once per row of `columns`, an operator at a time over blocks of rows; much faster than a call
+     * of {@link #evaluate(int...)} per row once there are more than a few hundred rows
+     * @param rows number of rows
+     * @param columns variable values, column `i` holds slot `i` of every row
+     * @return result and validity of every row
+     * @throws IllegalArgumentException if `rows` is negative, there is not one column per variable or a column is
+     *                                  shorter than `rows`
+     */
+    public BatchResult evaluateColumns(int rows, int[]... columns) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("negative row count " + rows);
+        }
+        if (columns.length != variables.length) {
+            throw new IllegalArgumentException("expected " + variables.length + " columns, got " + columns.length);
+        }
+        for (int[] column : columns) {
+            if (column.length < rows) {
+                throw new IllegalArgumentException("column of " + column.length + " rows, expected " + rows);
+            }
+        }
+        return ColumnarEvaluator.evaluate(this, rows, columns);
+    }
+
+    /**
+     * translate the code to bytecode now, whatever the evaluation count
+     * @return kernel, Optional.empty() if the code is too large to run faster as bytecode
+     */
+    public Optional<Kernel> toKernel() {
+        Kernel translated = kernel;
+        if (translated == null) {
+            translated = kernel = KernelCompiler.compile(code, depth);
+        }
+        return Optional.ofNullable(translated);
+    }
+
+    /**
+     * count one evaluation and translate the code when it reaches {@link #JIT_THRESHOLD}
+     * @return kernel to run instead of the code, null while the code is interpreted
+     */
+    Kernel tier() {
+        Kernel translated = kernel;
+        if (translated == null && countdown > 0 && --countdown == 0
+                && TRANSLATING.compareAndSet(this, false, true)) {
+            // a failed translation leaves the countdown at 0, so it is never tried again
+            translated = kernel = KernelCompiler.compile(code, depth);
+        }
+        return translated;
+    }
+
+    /**
+     * @return number of variable slots
+     */
+    public int variableCount() {
+        return variables.length;
+    }
+
+    /**
+     * @param name variable name
+     * @return slot of `name`, -1 if it is not a variable of this expression
+     */
+    public int slot(String name) {
+        for (int slot = 0; slot < variables.length; slot++) {
+            if (variables[slot].equals(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return source expression
+     */
+    public String expression() {
+        return expression;
+    }
+
+    /**
+     * @return source expression radix
+     */
+    public int base() {
+        return base;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * expression translated to a JVM method, which the JIT compiles and inlines like any other code
+     */
+    public interface Kernel {
+        /**
+         * @param vars variable values indexed by slot
+         * @return result in wrapping `int` arithmetic in the lower half, read by {@link #value(long)}, and
+         *         {@link Calculation#OK} or the error code of the evaluation in the upper half, read by
+         *         {@link #error(long)}
+         */
+        long eval(int[] vars);
+
+        /**
+         * @param result return value of {@link #eval(int[])}
+         * @return result of a valid evaluation
+         */
+        static int value(long result) {
+            return (int) result;
+        }
+
+        /**
+         * @param result return value of {@link #eval(int[])}
+         * @return {@link Calculation#OK}, or {@link Calculation#DIVISION_BY_ZERO}
+         */
+        static int error(long result) {
+            return (int) (result >>> 32);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * read-only {@link CharSequence} over the storage of a Swing {@link Document}
+ * <p>
+ * characters come through a {@link Segment} in partial-return mode, which points into the document's own
+ * buffer one contiguous chunk at a time instead of copying the text. a view caches the chunk it last read, so
+ * create one per reading pass and hold the document's read lock ({@link Document#render(Runnable)}) for the
+ * whole pass, or read on the EDT, where the document cannot change underneath
+ */
+public final class DocumentText implements CharSequence {
+    private final Document doc;
+
+    /**
+     * chunk of the document read last
+     */
+    private final Segment chunk = new Segment();
+
+    /**
+     * document offset of the first character of {@link #chunk}
+     */
+    private int chunkStart;
+
+    /**
+     * document offset after the last character of {@link #chunk}
+     */
+    private int chunkEnd;
+
+    /**
+     * @param doc document to read
+     */
+    public DocumentText(Document doc) {
+        this.doc = doc;
+        chunk.setPartialReturn(true);
+    }
+
+    @Override
+    public int length() {
+        return doc.getLength();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < chunkStart || index >= chunkEnd) {
+            load(index);
+        }
+        return chunk.array[chunk.offset + index - chunkStart];
+    }
+
+    /**
+     * point {@link #chunk} at the contiguous run of the document starting at `index`
+     * @param index document offset
+     */
+    private void load(int index) {
+        int length = doc.getLength();
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        try {
+            doc.getText(index, length - index, chunk);
+        } catch (BadLocationException e) {
+            throw new IndexOutOfBoundsException(e.getMessage());
+        }
+        chunkStart = index;
+        chunkEnd = index + chunk.count;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        try {
+            return doc.getText(start, end - start);
+        } catch (BadLocationException e) {
+            throw new IndexOutOfBoundsException(e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+}
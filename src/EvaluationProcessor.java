@@ -0,0 +1,379 @@
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * pipeline stage evaluating a stream of {@link ExpressionRequest}s into {@link EvaluationResult}s, for one
+ * subscriber, in request order
+ * <p>
+ * requests are evaluated in micro-batches on an executor, at most `parallelism` batches at a time, each on its
+ * worker's thread-local {@link Calculation}; no thread ever waits for a request or a result. a batch takes a
+ * fair share of the waiting requests, up to `maxBatch`: one at a time under light load, so a request is not
+ * held back for others, and full batches once a backlog builds up, so the hand-off cost is spread over many.
+ * results are delivered in the order their requests arrived.
+ * <p>
+ * at most `capacity` requests are held between arrival and delivery, that is all the demand ever signalled
+ * upstream: a delivered result frees its slot, and freed slots are requested again in chunks of a quarter of
+ * the capacity. a slow subscriber therefore stops the publisher instead of filling a queue
+ */
+public final class EvaluationProcessor implements Flow.Processor<ExpressionRequest, EvaluationResult> {
+    public static final int DEFAULT_MAX_BATCH = 256;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int maxBatch;
+    private final int capacity;
+
+    /**
+     * freed slots requested from upstream at once
+     */
+    private final int replenish;
+
+    /**
+     * request of every sequence number between delivered and received, at index `sequence % capacity`
+     */
+    private final ExpressionRequest[] requests;
+
+    /**
+     * result of every evaluated, undelivered request, same indexes as {@link #requests}
+     */
+    private final AtomicReferenceArray<EvaluationResult> results;
+
+    private volatile Flow.Subscription upstream;
+    private final AtomicReference<Flow.Subscriber<? super EvaluationResult>> downstream = new AtomicReference<>();
+
+    /**
+     * true once the downstream subscriber's onSubscribe has returned
+     */
+    private volatile boolean subscribed;
+
+    /**
+     * results the downstream subscriber asked for and has not got, Long.MAX_VALUE for unbounded
+     */
+    private final AtomicLong demand = new AtomicLong();
+
+    /**
+     * {@link #drain()} calls not handled yet, the caller that raises it from 0 runs the loop
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /**
+     * batches on the executor
+     */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * sequence number of the next request to arrive, written by onNext only
+     */
+    private volatile long received;
+
+    /**
+     * sequence number of the next request to hand to a batch, drain loop only
+     */
+    private long dispatched;
+
+    /**
+     * sequence number of the next result to deliver, written by the drain loop only
+     */
+    private volatile long delivered;
+
+    /**
+     * delivered slots not requested again yet, drain loop only
+     */
+    private long unrequested;
+
+    /**
+     * true once upstream completed or failed, after its last request
+     */
+    private volatile boolean completed;
+
+    /**
+     * upstream failure, passed on after the results of every request before it
+     */
+    private volatile Throwable failure;
+
+    /**
+     * failure passed on at once, dropping the results still pending
+     */
+    private volatile Throwable fatal;
+
+    private volatile boolean cancelled;
+
+    /**
+     * true once downstream was completed, failed or cancelled, drain loop only
+     */
+    private boolean terminated;
+
+    /**
+     * processor on the common fork-join pool, with as many batches at once as there are cores
+     */
+    public EvaluationProcessor() {
+        this(ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BATCH,
+                DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param executor runs the batches
+     * @param parallelism most batches running at once
+     * @param maxBatch most requests per batch
+     * @param capacity most requests held between arrival and delivery
+     * @throws IllegalArgumentException if `parallelism`, `maxBatch` or `capacity` is less than 1
+     */
+    public EvaluationProcessor(Executor executor, int parallelism, int maxBatch, int capacity) {
+        if (parallelism < 1 || maxBatch < 1 || capacity < 1) {
+            throw new IllegalArgumentException("parallelism " + parallelism + ", batch " + maxBatch
+                    + " and capacity " + capacity + " must be positive");
+        }
+        this.executor = Objects.requireNonNull(executor);
+        this.parallelism = parallelism;
+        this.maxBatch = maxBatch;
+        this.capacity = capacity;
+        replenish = Math.max(1, capacity / 4);
+        requests = new ExpressionRequest[capacity];
+        results = new AtomicReferenceArray<>(capacity);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        subscription.request(capacity);
+    }
+
+    @Override
+    public void onNext(ExpressionRequest request) {
+        Objects.requireNonNull(request);
+        long sequence = received;
+        if (sequence - delivered >= capacity) {
+            // the publisher sent more than it was asked for
+            fail(new IllegalStateException("more than " + capacity + " requests in flight"));
+            return;
+        }
+        requests[(int) (sequence % capacity)] = request;
+        received = sequence + 1;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        failure = Objects.requireNonNull(throwable);
+        completed = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        completed = true;
+        drain();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super EvaluationResult> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("an EvaluationProcessor has a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("non-positive request " + n));
+                    return;
+                }
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                Flow.Subscription subscription = upstream;
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                drain();
+            }
+        });
+        subscribed = true;
+        drain();
+    }
+
+    /**
+     * @return requests received and not delivered yet, never more than the capacity
+     */
+    public long inFlight() {
+        return received - delivered;
+    }
+
+    /**
+     * stop upstream and pass `error` on at once
+     */
+    private void fail(Throwable error) {
+        fatal = error;
+        Flow.Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        drain();
+    }
+
+    /**
+     * run {@link #step()} until no call is left, on one thread at a time; signals to the subscriber are never
+     * concurrent and a call made from inside a signal only schedules another step
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (!terminated) {
+                step();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * start batches, deliver the results in order as far as demand allows, refill upstream demand and finish
+     */
+    private void step() {
+        if (cancelled) {
+            terminated = true;
+            return;
+        }
+        Flow.Subscriber<? super EvaluationResult> subscriber = subscribed ? downstream.get() : null;
+        Throwable error = fatal;
+        if (error != null) {
+            if (subscriber != null) {
+                terminated = true;
+                subscriber.onError(error);
+            }
+            return;
+        }
+        dispatch();
+        if (subscriber == null) {
+            return;
+        }
+
+        long wanted = demand.get();
+        long n = 0;
+        long next = delivered;
+        while (n < wanted && next < received) {
+            int slot = (int) (next % capacity);
+            EvaluationResult result = results.get(slot);
+            if (result == null) {
+                break;              // still being evaluated
+            }
+            results.set(slot, null);
+            requests[slot] = null;
+            delivered = ++next;
+            n++;
+            subscriber.onNext(result);
+            if (cancelled || fatal != null) {
+                return;
+            }
+        }
+        if (n > 0) {
+            if (wanted != Long.MAX_VALUE) {
+                demand.addAndGet(-n);
+            }
+            unrequested += n;
+            if (unrequested >= replenish && !completed) {
+                long freed = unrequested;
+                unrequested = 0;
+                upstream.request(freed);
+            }
+            dispatch();
+        }
+
+        // completed is read before received, so every request before the completion is counted
+        if (completed && delivered == received) {
+            terminated = true;
+            if (failure != null) {
+                subscriber.onError(failure);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    /**
+     * hand waiting requests to batches while fewer than `parallelism` run, splitting them evenly over the free
+     * batches, at most `maxBatch` each
+     */
+    private void dispatch() {
+        long waiting;
+        int busy;
+        while ((waiting = received - dispatched) > 0 && (busy = running.get()) < parallelism) {
+            int free = parallelism - busy;
+            int n = (int) Math.min(maxBatch, (waiting + free - 1) / free);
+            long from = dispatched;
+            dispatched += n;
+            running.incrementAndGet();
+            try {
+                executor.execute(() -> evaluate(from, n));
+            } catch (RejectedExecutionException e) {
+                running.decrementAndGet();
+                dispatched = from;
+                fail(e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * evaluate one batch, on an executor thread
+     * @param from sequence number of the first request
+     * @param n number of requests
+     */
+    private void evaluate(long from, int n) {
+        RuntimeException error = null;
+        try {
+            Calculation calc = Calculation.local();
+            for (long sequence = from; sequence < from + n; sequence++) {
+                int slot = (int) (sequence % capacity);
+                ExpressionRequest request = requests[slot];
+                boolean valid = calc.evaluate(request.expression(), request.radix());
+                results.set(slot, new EvaluationResult(request, valid ? Optional.of(calc.value()) : Optional.empty(),
+                        calc.error(), calc.position()));
+            }
+        } catch (RuntimeException e) {
+            error = e;
+        } finally {
+            running.decrementAndGet();
+        }
+        if (error != null) {
+            fail(error);
+        } else {
+            drain();
+        }
+    }
+}
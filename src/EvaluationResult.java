@@ -0,0 +1,17 @@
+import java.util.Optional;
+
+/**
+ * outcome of one {@link ExpressionRequest}, the output of {@link EvaluationProcessor}
+ * @param request evaluated request
+ * @param result result, Optional.empty() if the expression is invalid
+ * @param error {@link Calculation#OK} or the error code telling why the expression is invalid
+ * @param position character index where the error was found, -1 if none
+ */
+public record EvaluationResult(ExpressionRequest request, Optional<Integer> result, int error, int position) {
+    /**
+     * @return true if the expression is valid
+     */
+    public boolean isValid() {
+        return result.isPresent();
+    }
+}
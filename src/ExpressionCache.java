@@ -0,0 +1,247 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * bounded concurrent cache of parse results keyed by expression text and radix
+ * <p>
+ * entries live in lock-striped segments kept in access order, so the victim is always the least recently used
+ * entry of its segment. with {@link Policy#TINY_LFU} a new entry is only admitted when a frequency sketch says
+ * it is more popular than that victim, which keeps one-off expressions from flushing the hot ones. invalid
+ * expressions are cached too, with the error code, position and token count their parse failed with
+ */
+public final class ExpressionCache {
+    /**
+     * eviction policy
+     */
+    public enum Policy {
+        LRU,        // always admit, evict the least recently used entry
+        TINY_LFU    // evict the least recently used entry only for a more frequent candidate
+    }
+
+    /**
+     * cached parse result, the reason of an invalid expression is the one an uncached evaluation reports
+     * @param compiled compiled expression, Optional.empty() if the expression does not compile
+     * @param error {@link Calculation#OK}, or the error code evaluating the expression fails with
+     * @param position character index where the evaluation fails, -1 when it does not
+     * @param tokens tokens read until then
+     */
+    record Parsed(Optional<CompiledExpression> compiled, int error, int position, int tokens) {
+    }
+
+    /**
+     * segments, a power of two
+     */
+    private final Segment[] segments;
+
+    /**
+     * eviction policy
+     */
+    private final Policy policy;
+
+    /**
+     * access frequency estimate, null for {@link Policy#LRU}
+     */
+    private final FrequencySketch sketch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize maximum number of cached expressions
+     * @param policy eviction policy
+     */
+    public ExpressionCache(int maximumSize, Policy policy) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        // enough segments to keep threads off each other's locks, but at least 32 entries in each
+        int count = 1;
+        while (count < Runtime.getRuntime().availableProcessors() * 2 && count * 32 <= maximumSize) {
+            count <<= 1;
+        }
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maximumSize / count + (i < maximumSize % count ? 1 : 0));
+        }
+        this.policy = policy;
+        this.sketch = policy == Policy.TINY_LFU ? new FrequencySketch(maximumSize) : null;
+    }
+
+    /**
+     * look up the compiled form of `expression`, compiling and caching it on a miss
+     * @param expression original mathematical expression
+     * @param base expression radix
+     * @return compiled expression, Optional.empty() if expression is invalid
+     */
+    public Optional<CompiledExpression> get(String expression, int base) {
+        return lookup(expression, base).compiled();
+    }
+
+    /**
+     * look up the parse result of `expression`, compiling and caching it on a miss
+     * @param expression original mathematical expression
+     * @param base expression radix
+     * @return parse result, with the reason when expression is invalid
+     */
+    Parsed lookup(String expression, int base) {
+        Key key = new Key(expression, base);
+        int hash = key.hash();
+        Segment segment = segments[(hash ^ hash >>> 16) & (segments.length - 1)];
+        if (sketch != null) {
+            sketch.increment(hash);
+        }
+
+        Parsed parsed;
+        synchronized (segment) {
+            parsed = segment.get(key);
+        }
+        if (parsed != null) {
+            hits.increment();
+            return parsed;
+        }
+
+        // compile outside the lock, a racing miss on the same key just compiles twice
+        misses.increment();
+        parsed = Calculation.parse(expression, base);
+        synchronized (segment) {
+            if (segment.size() >= segment.capacity && !segment.containsKey(key)) {
+                Iterator<Map.Entry<Key, Parsed>> eldest = segment.entrySet().iterator();
+                Key victim = eldest.next().getKey();
+                evictions.increment();
+                if (sketch != null && sketch.frequency(hash) <= sketch.frequency(victim.hash())) {
+                    return parsed;      // the candidate loses, it is the one evicted
+                }
+                eldest.remove();
+            }
+            segment.put(key, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * @return eviction policy
+     */
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups that had to parse
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries evicted or refused admission
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of cached expressions
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * drop every cached expression, counters are kept
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * cache key
+     * @param expression original mathematical expression
+     * @param base expression radix
+     */
+    private record Key(String expression, int base) {
+        int hash() {
+            return expression.hashCode() * 31 + base;
+        }
+    }
+
+    /**
+     * one lock stripe, iteration order is least recently used first
+     */
+    private static final class Segment extends LinkedHashMap<Key, Parsed> {
+        final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * count-min sketch of one-byte counters saturating at 15, halved periodically so old popularity fades;
+     * updates are racy on purpose, the counts are estimates anyway
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0x5bd1e995, 0x27d4eb2f, 0x165667b1};
+        private final byte[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            // four counters per entry, clamped to the largest power of two an array can hold
+            int size = Integer.highestOneBit(Math.min(Math.max(maximumSize, 16) - 1, 1 << 28)) << 2;
+            table = new byte[size];
+            mask = size - 1;
+            sampleSize = (int) Math.min(maximumSize * 10L, Integer.MAX_VALUE);
+        }
+
+        void increment(int hash) {
+            for (int seed : SEEDS) {
+                int i = index(hash, seed);
+                if (table[i] < 15) {
+                    table[i]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                additions = 0;
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>= 1;
+                }
+            }
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int seed : SEEDS) {
+                min = Math.min(min, table[index(hash, seed)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int seed) {
+            int h = hash * seed;
+            return (h ^ h >>> 17) & mask;
+        }
+    }
+}
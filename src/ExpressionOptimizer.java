@@ -0,0 +1,181 @@
+import java.util.Arrays;
+
+/**
+ * simplification pass over the postfix code of a {@link CompiledExpression}, run once when compiling
+ * <p>
+ * every number on the stack is tracked as the code fragment that produces it. an operator on two constants is
+ * replaced by its result, identities (`x+0`, `0+x`, `x-0`, `x*1`, `1*x`, `x/1`) drop the constant, and `0-x`,
+ * which is also how a unary minus is encoded, becomes {@link CompiledExpression#NEG}. folding wraps like the
+ * evaluator does, and a division by a constant zero is kept so the expression still fails at run time; for the
+ * same reason `x*0` is left alone, `x` may divide by zero itself
+ */
+final class ExpressionOptimizer {
+    /**
+     * optimized code
+     */
+    private final int[] out;
+
+    /**
+     * optimized code length
+     */
+    private int len;
+
+    /**
+     * per stack entry: where its fragment starts in {@link #out}
+     */
+    private final int[] start;
+
+    /**
+     * per stack entry: true if its fragment is a single {@link CompiledExpression#PUSH}
+     */
+    private final boolean[] constant;
+
+    /**
+     * per stack entry: the pushed value of a constant fragment
+     */
+    private final int[] value;
+
+    /**
+     * per stack entry: true if its fragment ends with {@link CompiledExpression#NEG}
+     */
+    private final boolean[] negated;
+
+    /**
+     * stack size
+     */
+    private int top;
+
+    private ExpressionOptimizer(int length, int depth) {
+        out = new int[length];
+        start = new int[depth];
+        constant = new boolean[depth];
+        value = new int[depth];
+        negated = new boolean[depth];
+    }
+
+    /**
+     * @param code postfix code
+     * @param length code length
+     * @param depth number stack size needed by `code`
+     * @return equivalent code, never longer
+     */
+    static int[] optimize(int[] code, int length, int depth) {
+        ExpressionOptimizer optimizer = new ExpressionOptimizer(length, depth);
+        for (int pc = 0; pc < length; pc++) {
+            switch (code[pc]) {
+                case CompiledExpression.PUSH -> optimizer.push(code[++pc]);
+                case CompiledExpression.LOAD -> optimizer.load(code[++pc]);
+                case CompiledExpression.NEG -> optimizer.negate(optimizer.top - 1);
+                default -> optimizer.binary(code[pc]);
+            }
+        }
+        return Arrays.copyOf(optimizer.out, optimizer.len);
+    }
+
+    /**
+     * @param code postfix code
+     * @return number stack size needed to run `code`
+     */
+    static int depth(int[] code) {
+        int depth = 0;
+        int max = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CompiledExpression.PUSH, CompiledExpression.LOAD -> {
+                    pc++;
+                    max = Math.max(max, ++depth);
+                }
+                case CompiledExpression.NEG -> {
+                }
+                default -> depth--;
+            }
+        }
+        return max;
+    }
+
+    private void push(int n) {
+        start[top] = len;
+        constant[top] = true;
+        value[top] = n;
+        negated[top] = false;
+        top++;
+        out[len++] = CompiledExpression.PUSH;
+        out[len++] = n;
+    }
+
+    private void load(int slot) {
+        start[top] = len;
+        constant[top] = false;
+        negated[top] = false;
+        top++;
+        out[len++] = CompiledExpression.LOAD;
+        out[len++] = slot;
+    }
+
+    /**
+     * apply a binary opcode to the two topmost entries
+     * @param op {@link CompiledExpression#ADD}, {@link CompiledExpression#SUB}, {@link CompiledExpression#MUL} or
+     *           {@link CompiledExpression#DIV}
+     */
+    private void binary(int op) {
+        int rhs = --top;
+        int lhs = top - 1;
+        if (constant[lhs] && constant[rhs] && !(op == CompiledExpression.DIV && value[rhs] == 0)) {
+            len = start[lhs];
+            top--;
+            push(fold(op, value[lhs], value[rhs]));
+            return;
+        }
+        if (constant[rhs] && value[rhs] == (op == CompiledExpression.ADD || op == CompiledExpression.SUB ? 0 : 1)) {
+            // x+0, x-0, x*1, x/1
+            len = start[rhs];
+            return;
+        }
+        if (constant[lhs] && (op == CompiledExpression.ADD || op == CompiledExpression.SUB) && value[lhs] == 0
+                || constant[lhs] && op == CompiledExpression.MUL && value[lhs] == 1) {
+            // 0+x, 0-x, 1*x: drop the constant, the right fragment moves down to take its place
+            System.arraycopy(out, start[rhs], out, start[lhs], len - start[rhs]);
+            len -= start[rhs] - start[lhs];
+            constant[lhs] = false;
+            negated[lhs] = negated[rhs];
+            if (op == CompiledExpression.SUB) {
+                negate(lhs);
+            }
+            return;
+        }
+        out[len++] = op;
+        constant[lhs] = false;
+        negated[lhs] = false;
+    }
+
+    /**
+     * negate the topmost entry
+     * @param entry index of the topmost entry
+     */
+    private void negate(int entry) {
+        if (constant[entry]) {
+            len = start[entry];
+            top--;
+            push(-value[entry]);
+        } else if (negated[entry]) {
+            // -(-x)
+            len--;
+            negated[entry] = false;
+        } else {
+            out[len++] = CompiledExpression.NEG;
+            negated[entry] = true;
+        }
+    }
+
+    /**
+     * @return `lhs op rhs` in wrapping int arithmetic, `rhs` is not zero for a division
+     */
+    private static int fold(int op, int lhs, int rhs) {
+        return switch (op) {
+            case CompiledExpression.ADD -> lhs + rhs;
+            case CompiledExpression.SUB -> lhs - rhs;
+            case CompiledExpression.MUL -> lhs * rhs;
+            default -> lhs / rhs;
+        };
+    }
+}
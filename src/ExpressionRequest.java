@@ -0,0 +1,13 @@
+import java.util.Objects;
+
+/**
+ * one expression to evaluate, the input of {@link EvaluationProcessor}
+ * @param id caller's identifier, carried over to the result untouched
+ * @param expression original mathematical expression
+ * @param radix expression radix
+ */
+public record ExpressionRequest(long id, String expression, int radix) {
+    public ExpressionRequest {
+        Objects.requireNonNull(expression);
+    }
+}
@@ -0,0 +1,371 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * calculation history kept in an append-only, memory-mapped log file
+ * <p>
+ * every entry is an expression, its radix and its result, written once and never changed. the file is mapped
+ * in one piece and grows by doubling; the part past the last entry is zeros, and a record's length word is
+ * written after the rest of it, so a record torn by a crash reads as the end of the log. opening a log walks
+ * the record headers once, without decoding any expression, to build an offset per entry and an
+ * open-addressing hash index over (expression, radix), so {@link #find(String, int)} answers in constant time
+ * and a log of millions of entries opens in milliseconds
+ * <p>
+ * the file is locked while open. one thread appends; any number of threads may read entries and
+ * {@link #search(String, int)} at the same time, they see every entry appended before they read {@link #size()}
+ * <pre>
+ * record := length int   expression bytes + 1, 0 marks the end of the log
+ *           hash   int   {@link #hash(String, int)}
+ *           radix  byte
+ *           valid  byte  1 if the expression is valid
+ *           result int   result, 0 when invalid
+ *           expression   UTF-8
+ * </pre>
+ */
+public final class HistoryLog implements Closeable {
+    /**
+     * longest expression kept, in UTF-8 bytes
+     */
+    public static final int MAX_EXPRESSION = 1 << 16;
+
+    private static final long MAGIC = 0x43414c4348495354L;      // "CALCHIST"
+    private static final int HEADER = 8;
+    private static final int RECORD_HEADER = 14;
+    private static final int INITIAL_MAPPING = 1 << 20;
+    private static final int MAX_MAPPING = Integer.MAX_VALUE;
+
+    /**
+     * one history entry
+     * @param expression original mathematical expression
+     * @param radix expression radix
+     * @param result result, Optional.empty() if the expression was invalid
+     */
+    public record Entry(String expression, int radix, Optional<Integer> result) {
+    }
+
+    private final FileChannel channel;
+
+    /**
+     * mapping of the whole file, replaced by a larger one when full
+     */
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * file offset of every entry's record, entry order
+     */
+    private volatile int[] offsets;
+
+    /**
+     * {@link #hash(String, int)} of every entry
+     */
+    private int[] hashes;
+
+    /**
+     * open-addressing table of entry index + 1, 0 for a free slot, the newest entry of every key; a power of two
+     * at most half full
+     */
+    private int[] table;
+
+    /**
+     * number of entries, written after everything they need is in place
+     */
+    private volatile int count;
+
+    /**
+     * file offset past the last record
+     */
+    private int end;
+
+    private HistoryLog(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * open the log at `file`, creating it when it does not exist
+     * @param file log file
+     * @return open log
+     * @throws IOException if the file cannot be mapped, is not a history log or is open in another process
+     */
+    public static HistoryLog open(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() == null) {
+                throw new IOException(file + " is in use by another process");
+            }
+            long size = channel.size();
+            if (size > MAX_MAPPING) {
+                throw new IOException(file + " is too large for a history log");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(size, INITIAL_MAPPING));
+            if (size == 0) {
+                buffer.putLong(0, MAGIC);
+            } else if (size < HEADER || buffer.getLong(0) != MAGIC) {
+                throw new IOException(file + " is not a history log");
+            }
+            HistoryLog log = new HistoryLog(channel, buffer);
+            log.load();
+            return log;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * walk the records and index them
+     */
+    private void load() {
+        MappedByteBuffer map = buffer;
+        int[] at = new int[1024];
+        int[] hash = new int[1024];
+        int n = 0;
+        int pos = HEADER;
+        int limit = map.capacity();
+        while (pos <= limit - RECORD_HEADER) {
+            int length = map.getInt(pos) - 1;
+            if (length < 0 || length > MAX_EXPRESSION || pos + RECORD_HEADER + length > limit) {
+                break;
+            }
+            if (n == at.length) {
+                at = Arrays.copyOf(at, n << 1);
+                hash = Arrays.copyOf(hash, n << 1);
+            }
+            at[n] = pos;
+            hash[n] = map.getInt(pos + 4);
+            n++;
+            pos += RECORD_HEADER + length;
+        }
+        offsets = at;
+        hashes = hash;
+        end = pos;
+        table = new int[table_size(n)];
+        for (int i = 0; i < n; i++) {
+            index(i);
+        }
+        count = n;
+    }
+
+    /**
+     * @param entries number of entries
+     * @return table size keeping `entries` at most half of it
+     */
+    private static int table_size(int entries) {
+        return Math.max(16, Integer.highestOneBit(Math.max(entries, 1)) << 2);
+    }
+
+    /**
+     * put entry `i` into {@link #table}, replacing an older entry with the same key
+     * @param i entry index, every earlier entry is already indexed
+     */
+    private void index(int i) {
+        int mask = table.length - 1;
+        int hash = hashes[i];
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int other = table[slot] - 1;
+            if (other < 0 || hashes[other] == hash && same_key(other, i)) {
+                table[slot] = i + 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if entries `a` and `b` have the same radix and expression
+     */
+    private boolean same_key(int a, int b) {
+        MappedByteBuffer map = buffer;
+        int from = offsets[a];
+        int to = offsets[b];
+        int length = map.getInt(from);
+        if (length != map.getInt(to) || map.get(from + 8) != map.get(to + 8)) {
+            return false;
+        }
+        for (int k = RECORD_HEADER; k < RECORD_HEADER + length - 1; k++) {
+            if (map.get(from + k) != map.get(to + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * add an entry at the end of the log
+     * @param expression original mathematical expression
+     * @param radix expression radix
+     * @param result result, Optional.empty() if the expression is invalid
+     * @return entry index, -1 if the expression is longer than {@link #MAX_EXPRESSION} or the log is full
+     * @throws IOException if the file cannot be grown
+     */
+    public synchronized int append(String expression, int radix, Optional<Integer> result) throws IOException {
+        byte[] bytes = expression.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_EXPRESSION) {
+            return -1;
+        }
+        int size = RECORD_HEADER + bytes.length;
+        if ((long) end + size > MAX_MAPPING) {
+            return -1;
+        }
+        MappedByteBuffer map = buffer;
+        if (end + size > map.capacity()) {
+            long grown = Math.min(MAX_MAPPING, Math.max((long) map.capacity() << 1, (long) end + size));
+            map = buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, grown);
+        }
+        int hash = hash(expression, radix);
+        map.putInt(end + 4, hash);
+        map.put(end + 8, (byte) radix);
+        map.put(end + 9, (byte) (result.isPresent() ? 1 : 0));
+        map.putInt(end + 10, result.orElse(0));
+        map.put(end + RECORD_HEADER, bytes);
+        map.putInt(end, bytes.length + 1);      // commits the record
+
+        int n = count;
+        if (n == offsets.length) {
+            offsets = Arrays.copyOf(offsets, n << 1);
+            hashes = Arrays.copyOf(hashes, n << 1);
+        }
+        offsets[n] = end;
+        hashes[n] = hash;
+        end += size;
+        if ((n + 1) * 2 > table.length) {
+            table = new int[table.length << 1];
+            for (int i = 0; i < n; i++) {
+                index(i);
+            }
+        }
+        index(n);
+        count = n + 1;
+        return n;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param index entry index, 0 is the oldest
+     * @return entry `index`
+     */
+    public Entry get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        MappedByteBuffer map = buffer;
+        int pos = offsets[index];
+        byte[] bytes = new byte[map.getInt(pos) - 1];
+        map.get(pos + RECORD_HEADER, bytes);
+        Optional<Integer> result = map.get(pos + 9) != 0 ? Optional.of(map.getInt(pos + 10)) : Optional.empty();
+        return new Entry(new String(bytes, StandardCharsets.UTF_8), map.get(pos + 8), result);
+    }
+
+    /**
+     * newest entry of an expression, to recall its result without evaluating it again
+     * @param expression original mathematical expression
+     * @param radix expression radix
+     * @return entry index, -1 if the expression is not in the history
+     */
+    public synchronized int find(String expression, int radix) {
+        byte[] bytes = expression.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(expression, radix);
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int i = table[slot] - 1;
+            if (i < 0) {
+                return -1;
+            }
+            if (hashes[i] == hash && buffer.get(offsets[i] + 8) == (byte) radix && starts_with(i, bytes, true)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * entries whose expression starts with `prefix`, newest first
+     * @param prefix expression prefix
+     * @param limit most entries returned
+     * @return entry indexes
+     */
+    public int[] search(String prefix, int limit) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        int[] found = new int[Math.min(limit, 64)];
+        int n = 0;
+        for (int i = count - 1; i >= 0 && n < limit; i--) {
+            if (starts_with(i, bytes, false)) {
+                if (n == found.length) {
+                    found = Arrays.copyOf(found, Math.min(limit, n << 1));
+                }
+                found[n++] = i;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    /**
+     * @param i entry index
+     * @param bytes UTF-8 bytes
+     * @param whole true to match the whole expression, false for a prefix
+     * @return true if the expression of entry `i` is `bytes` or starts with them
+     */
+    private boolean starts_with(int i, byte[] bytes, boolean whole) {
+        MappedByteBuffer map = buffer;
+        int pos = offsets[i];
+        int length = map.getInt(pos) - 1;
+        if (whole ? length != bytes.length : length < bytes.length) {
+            return false;
+        }
+        pos += RECORD_HEADER;
+        for (int k = 0; k < bytes.length; k++) {
+            if (map.get(pos + k) != bytes[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param expression original mathematical expression
+     * @param radix expression radix
+     * @return hash of the key, stored in the record so the index is rebuilt without reading expressions
+     */
+    static int hash(String expression, int radix) {
+        return expression.hashCode() * 31 + radix;
+    }
+
+    /**
+     * spread the bits of `hash` over the low bits that pick a table slot
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * write the mapped pages to the file
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * evaluator for text that only changes at its end, like the calculator display
+ * <p>
+ * appended characters are fed into a push-style {@link Calculation} that keeps its parse state between edits,
+ * and that state is copied every {@link #CHECKPOINT} characters, so dropping the last character restores the
+ * nearest checkpoint and feeds at most {@link #CHECKPOINT} characters again. {@link #preview()} finishes a
+ * copy of the state, so its cost depends on the operators and parentheses still open, not on the text length
+ */
+public final class IncrementalCalculation {
+    /**
+     * characters between checkpoints
+     */
+    static final int CHECKPOINT = 32;
+
+    /**
+     * text fed so far
+     */
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * parse state after all of {@link #text}
+     */
+    private final Calculation live = new Calculation();
+
+    /**
+     * scratch evaluator finished by {@link #preview()}
+     */
+    private final Calculation scratch = new Calculation();
+
+    /**
+     * parse state after `k * CHECKPOINT` characters at index `k - 1`, instances are reused
+     */
+    private Calculation[] checkpoints = new Calculation[8];
+
+    /**
+     * expression radix
+     */
+    private int base;
+
+    /**
+     * @param base expression radix
+     */
+    public IncrementalCalculation(int base) {
+        this(base, false);
+    }
+
+    /**
+     * @param base expression radix
+     * @param radixPrefixes true to read `0b`, `0o` and `0x` literals, see {@link Calculation#setRadixPrefixes(boolean)}
+     */
+    public IncrementalCalculation(int base, boolean radixPrefixes) {
+        live.setRadixPrefixes(radixPrefixes);
+        reset(base);
+    }
+
+    /**
+     * stop feeding with {@link Calculation#CANCELLED} when the appending thread is interrupted, see
+     * {@link Calculation#setCancellable(boolean)}
+     * @param enabled true to poll the interrupt status
+     */
+    public void setCancellable(boolean enabled) {
+        live.setCancellable(enabled);
+    }
+
+    /**
+     * clear the text
+     * @param base expression radix from now on
+     */
+    public void reset(int base) {
+        this.base = base;
+        text.setLength(0);
+        live.reset(base);
+    }
+
+    /**
+     * append one character
+     * @param c character
+     */
+    public void append(char c) {
+        text.append(c);
+        live.feed(c);
+        if (text.length() % CHECKPOINT == 0) {
+            int k = text.length() / CHECKPOINT;
+            if (k > checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, k << 1);
+            }
+            if (checkpoints[k - 1] == null) {
+                checkpoints[k - 1] = new Calculation();
+            }
+            checkpoints[k - 1].copyFrom(live);
+        }
+    }
+
+    /**
+     * append every character of `s`
+     * @param s characters
+     */
+    public void append(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            append(s.charAt(i));
+        }
+    }
+
+    /**
+     * drop the last character, if any
+     */
+    public void dropLast() {
+        int length = text.length() - 1;
+        if (length < 0) {
+            return;
+        }
+        text.setLength(length);
+        int k = length / CHECKPOINT;
+        if (k == 0) {
+            live.reset(base);
+        } else {
+            live.copyFrom(checkpoints[k - 1]);
+        }
+        for (int i = k * CHECKPOINT; i < length; i++) {
+            live.feed(text.charAt(i));
+        }
+    }
+
+    /**
+     * replace the text, only the part after the common prefix with the current text is parsed again
+     * @param s new text
+     */
+    public void setText(CharSequence s) {
+        int common = 0;
+        int max = Math.min(s.length(), text.length());
+        while (common < max && s.charAt(common) == text.charAt(common)) {
+            common++;
+        }
+        if (text.length() > common) {
+            truncate(common);
+        }
+        append(s.subSequence(common, s.length()));
+    }
+
+    /**
+     * cut the text to `length` characters, restoring the checkpoint below it
+     * @param length new length, smaller than the current one
+     */
+    private void truncate(int length) {
+        text.setLength(length + 1);
+        dropLast();
+    }
+
+    /**
+     * evaluate the text as it stands, the parse state is kept
+     * @return if the text is a valid expression, return its result; otherwise return Optional.empty()
+     */
+    public Optional<Integer> preview() {
+        scratch.copyFrom(live);
+        return scratch.finish() ? Optional.of(scratch.value()) : Optional.empty();
+    }
+
+    /**
+     * @return number of characters
+     */
+    public int length() {
+        return text.length();
+    }
+
+    /**
+     * @return expression radix
+     */
+    public int base() {
+        return base;
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,371 @@
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * translates the postfix code of a {@link CompiledExpression} into a hidden class implementing
+ * {@link CompiledExpression.Kernel}
+ * <p>
+ * the class file is written by hand. every opcode maps onto JVM instructions one to one: {@link
+ * CompiledExpression#PUSH} becomes a constant load, {@link CompiledExpression#LOAD} an `iaload` from the `vars`
+ * argument and the operators `iadd`, `isub`, `imul`, `idiv` and `ineg`, with the same wrapping semantics as the
+ * interpreter. like the interpreter, every `idiv` is guarded by a test of its divisor that returns
+ * {@link Calculation#DIVISION_BY_ZERO} instead of letting the JVM throw, so the only branches of `eval` are
+ * these guards and each one needs a single stack map frame. hidden classes are not held by any class loader
+ * and are unloaded together with their kernel
+ */
+final class KernelCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * largest `eval` body: HotSpot leaves methods with more than 8000 bytes of bytecode to the bytecode
+     * interpreter (`-XX:+DontCompileHugeMethods`), where a kernel is slower than the compiled postfix loop.
+     * the class file format itself stops at 65535
+     */
+    private static final int MAX_CODE = 8000;
+
+    /**
+     * largest constant pool the class file format allows
+     */
+    private static final int MAX_POOL = 65535;
+
+    private static final int CLASS_FILE_VERSION = 61;
+
+    // constant pool entries every kernel has, see write_class
+    private static final int THIS_CLASS = 2;
+    private static final int OBJECT_CLASS = 4;
+    private static final int KERNEL_INTERFACE = 6;
+    private static final int INIT_NAME = 7;
+    private static final int INIT_DESCRIPTOR = 8;
+    private static final int OBJECT_INIT = 10;
+    private static final int EVAL_NAME = 11;
+    private static final int EVAL_DESCRIPTOR = 12;
+    private static final int CODE_ATTRIBUTE = 13;
+    private static final int STACK_MAP_ATTRIBUTE = 14;
+    private static final int INT_ARRAY_CLASS = 16;
+    private static final int VALUE_MASK = 17;           // long, takes two entries
+    private static final int DIVISION_FAILURE = 19;     // long, takes two entries
+    private static final int FIXED_POOL = 21;
+
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int IALOAD = 0x2e;
+    private static final int LDC2_W = 0x14;
+    private static final int DUP = 0x59;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int IDIV = 0x6c;
+    private static final int INEG = 0x74;
+    private static final int LAND = 0x7f;
+    private static final int I2L = 0x85;
+    private static final int IFNE = 0x9a;
+    private static final int LRETURN = 0xad;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+
+    /**
+     * bytes written so far
+     */
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    /**
+     * constant pool index of every integer constant too large for `sipush`, in pool order
+     */
+    private final Map<Integer, Integer> integers = new HashMap<>();
+    private int[] integerOrder = new int[16];
+
+    /**
+     * code offset and operand stack height of every branch target, in code order
+     */
+    private int[] frameOffsets = new int[16];
+    private int[] frameStacks = new int[16];
+    private int frames;
+
+    private KernelCompiler() {
+    }
+
+    /**
+     * @param code postfix code
+     * @param depth number stack size needed by `code`
+     * @return kernel running `code`, null if it is too large to be worth a JVM method
+     */
+    static CompiledExpression.Kernel compile(int[] code, int depth) {
+        KernelCompiler body = new KernelCompiler();
+        if (!body.write_eval(code) || body.integers.size() > MAX_POOL - FIXED_POOL) {
+            return null;
+        }
+        KernelCompiler file = new KernelCompiler();
+        // an array load holds the array and the index, a guard a long, the return the value and its mask
+        file.write_class(body, Math.max(depth + 2, 4));
+        try {
+            Class<?> kernel = LOOKUP.defineHiddenClass(Arrays.copyOf(file.bytes, file.size), true).lookupClass();
+            return (CompiledExpression.Kernel) kernel.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("kernel class rejected", e);
+        }
+    }
+
+    /**
+     * write the instructions of `eval` into this buffer, collecting integer constants
+     * @param code postfix code
+     * @return false if the method body is too large
+     */
+    private boolean write_eval(int[] code) {
+        int stack = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CompiledExpression.PUSH -> {
+                    constant(code[++pc]);
+                    stack++;
+                }
+                case CompiledExpression.LOAD -> {
+                    u1(ALOAD_1);
+                    constant(code[++pc]);
+                    u1(IALOAD);
+                    stack++;
+                }
+                case CompiledExpression.ADD -> {
+                    u1(IADD);
+                    stack--;
+                }
+                case CompiledExpression.SUB -> {
+                    u1(ISUB);
+                    stack--;
+                }
+                case CompiledExpression.MUL -> {
+                    u1(IMUL);
+                    stack--;
+                }
+                case CompiledExpression.DIV -> {
+                    // if (rhs == 0) return DIVISION_FAILURE, the operands left on the stack are dropped
+                    u1(DUP);
+                    u1(IFNE);
+                    u2(7);                          // ifne, ldc2_w and lreturn take 3 + 3 + 1 bytes
+                    u1(LDC2_W);
+                    u2(DIVISION_FAILURE);
+                    u1(LRETURN);
+                    frame(size, stack);
+                    u1(IDIV);
+                    stack--;
+                }
+                case CompiledExpression.NEG -> u1(INEG);
+                default -> throw new IllegalArgumentException("opcode " + code[pc]);
+            }
+            if (size > MAX_CODE - 6) {
+                return false;
+            }
+        }
+        // zero-extend the value, so the upper half reads OK
+        u1(I2L);
+        u1(LDC2_W);
+        u2(VALUE_MASK);
+        u1(LAND);
+        u1(LRETURN);
+        return true;
+    }
+
+    /**
+     * record a branch target
+     * @param offset code offset of the target
+     * @param stack number of ints on the operand stack there
+     */
+    private void frame(int offset, int stack) {
+        if (frames == frameOffsets.length) {
+            frameOffsets = Arrays.copyOf(frameOffsets, frames << 1);
+            frameStacks = Arrays.copyOf(frameStacks, frames << 1);
+        }
+        frameOffsets[frames] = offset;
+        frameStacks[frames] = stack;
+        frames++;
+    }
+
+    /**
+     * load an int constant with the shortest instruction
+     * @param n constant
+     */
+    private void constant(int n) {
+        if (n >= -1 && n <= 5) {
+            u1(ICONST_0 + n);
+        } else if (n >= Byte.MIN_VALUE && n <= Byte.MAX_VALUE) {
+            u1(BIPUSH);
+            u1(n);
+        } else if (n >= Short.MIN_VALUE && n <= Short.MAX_VALUE) {
+            u1(SIPUSH);
+            u2(n);
+        } else {
+            Integer index = integers.get(n);
+            if (index == null) {
+                index = FIXED_POOL + integers.size();
+                if (integers.size() == integerOrder.length) {
+                    integerOrder = Arrays.copyOf(integerOrder, integerOrder.length << 1);
+                }
+                integerOrder[integers.size()] = n;
+                integers.put(n, index);
+            }
+            if (index <= 0xff) {
+                u1(LDC);
+                u1(index);
+            } else {
+                u1(LDC_W);
+                u2(index);
+            }
+        }
+    }
+
+    /**
+     * write the class file around the `eval` instructions of `body`
+     * @param body instructions and integer constants of `eval`
+     * @param maxStack operand stack size of `eval`
+     */
+    private void write_class(KernelCompiler body, int maxStack) {
+        u4(0xcafebabe);
+        u2(0);
+        u2(CLASS_FILE_VERSION);
+
+        u2(FIXED_POOL + body.integers.size());
+        utf8("ExpressionKernel");                   // 1
+        class_entry(1);                             // 2 THIS_CLASS
+        utf8("java/lang/Object");                   // 3
+        class_entry(3);                             // 4 OBJECT_CLASS
+        utf8("CompiledExpression$Kernel");          // 5
+        class_entry(5);                             // 6 KERNEL_INTERFACE
+        utf8("<init>");                             // 7 INIT_NAME
+        utf8("()V");                                // 8 INIT_DESCRIPTOR
+        u1(12);                                     // 9 CONSTANT_NameAndType
+        u2(INIT_NAME);
+        u2(INIT_DESCRIPTOR);
+        u1(10);                                     // 10 OBJECT_INIT, CONSTANT_Methodref
+        u2(OBJECT_CLASS);
+        u2(9);
+        utf8("eval");                               // 11 EVAL_NAME
+        utf8("([I)J");                              // 12 EVAL_DESCRIPTOR
+        utf8("Code");                               // 13 CODE_ATTRIBUTE
+        utf8("StackMapTable");                      // 14 STACK_MAP_ATTRIBUTE
+        utf8("[I");                                 // 15
+        class_entry(15);                            // 16 INT_ARRAY_CLASS
+        u1(5);                                      // 17 VALUE_MASK, CONSTANT_Long
+        u4(0);
+        u4(0xffffffff);
+        u1(5);                                      // 19 DIVISION_FAILURE, CONSTANT_Long
+        u4(Calculation.DIVISION_BY_ZERO);
+        u4(0);
+        for (int i = 0; i < body.integers.size(); i++) {
+            u1(3);                                  // CONSTANT_Integer
+            u4(body.integerOrder[i]);
+        }
+
+        u2(0x0010 | 0x0020);                        // ACC_FINAL | ACC_SUPER
+        u2(THIS_CLASS);
+        u2(OBJECT_CLASS);
+        u2(1);
+        u2(KERNEL_INTERFACE);
+        u2(0);                                      // fields
+
+        u2(2);                                      // methods
+        u2(0x0001);                                 // public <init>()
+        u2(INIT_NAME);
+        u2(INIT_DESCRIPTOR);
+        u2(1);
+        code_attribute(1, 1, new byte[]{(byte) ALOAD_0, (byte) INVOKESPECIAL, 0, OBJECT_INIT, (byte) RETURN},
+                5, null);
+        u2(0x0001);                                 // public long eval(int[])
+        u2(EVAL_NAME);
+        u2(EVAL_DESCRIPTOR);
+        u2(1);
+        code_attribute(maxStack, 2, body.bytes, body.size, body.frames > 0 ? body.stack_map() : null);
+
+        u2(0);                                      // class attributes
+    }
+
+    /**
+     * @return StackMapTable attribute of the branch targets, one full frame each: `this` and `vars` as locals,
+     *         ints on the operand stack
+     */
+    private KernelCompiler stack_map() {
+        KernelCompiler map = new KernelCompiler();
+        map.u2(STACK_MAP_ATTRIBUTE);
+        map.u4(0);                                  // length, patched below
+        map.u2(frames);
+        for (int i = 0; i < frames; i++) {
+            map.u1(255);                            // full_frame
+            map.u2(i == 0 ? frameOffsets[0] : frameOffsets[i] - frameOffsets[i - 1] - 1);
+            map.u2(2);
+            map.u1(7);                              // Object_variable_info
+            map.u2(THIS_CLASS);
+            map.u1(7);
+            map.u2(INT_ARRAY_CLASS);
+            map.u2(frameStacks[i]);
+            for (int k = 0; k < frameStacks[i]; k++) {
+                map.u1(1);                          // Integer_variable_info
+            }
+        }
+        int length = map.size - 6;
+        map.size = 2;
+        map.u4(length);
+        map.size = length + 6;
+        return map;
+    }
+
+    private void code_attribute(int maxStack, int maxLocals, byte[] code, int length, KernelCompiler stackMap) {
+        int attributes = stackMap == null ? 0 : stackMap.size;
+        u2(CODE_ATTRIBUTE);
+        u4(12 + length + attributes);
+        u2(maxStack);
+        u2(maxLocals);
+        u4(length);
+        ensure(length);
+        System.arraycopy(code, 0, bytes, size, length);
+        size += length;
+        u2(0);                                      // exception table
+        if (stackMap == null) {
+            u2(0);                                  // attributes
+        } else {
+            u2(1);
+            ensure(attributes);
+            System.arraycopy(stackMap.bytes, 0, bytes, size, attributes);
+            size += attributes;
+        }
+    }
+
+    private void class_entry(int name) {
+        u1(7);                                      // CONSTANT_Class
+        u2(name);
+    }
+
+    private void utf8(String s) {
+        u1(1);                                      // CONSTANT_Utf8, ASCII only here
+        u2(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            u1(s.charAt(i));
+        }
+    }
+
+    private void u1(int b) {
+        ensure(1);
+        bytes[size++] = (byte) b;
+    }
+
+    private void u2(int s) {
+        u1(s >>> 8);
+        u1(s);
+    }
+
+    private void u4(int i) {
+        u2(i >>> 16);
+        u2(i);
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, size + extra));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * table-driven formatting of integers in every radix from 2 to 36
+ * <p>
+ * digits are written two at a time from a per-radix table of all digit pairs, so a value costs one division per
+ * two digits, in `int` arithmetic once the value fits; radix 10 divides by a constant, which the JIT turns into a
+ * multiplication, and power-of-two radixes shift instead of dividing. negative values get a `-` and the digits of
+ * their magnitude, never a two's complement bit pattern, and the work is done on the negative value so
+ * {@link Long#MIN_VALUE} needs no special case. everything writes into a caller's `char[]`, only
+ * {@link #toString(long, int)} allocates
+ */
+public final class RadixFormat {
+    public static final int MIN_RADIX = Character.MIN_RADIX;
+    public static final int MAX_RADIX = Character.MAX_RADIX;
+
+    private static final char[] LOWER_DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final char[] UPPER_DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    /**
+     * per radix: both digits of every value below radix², built on first use
+     */
+    private static final char[][] LOWER_PAIRS = new char[MAX_RADIX + 1][];
+    private static final char[][] UPPER_PAIRS = new char[MAX_RADIX + 1][];
+
+    /**
+     * per radix: -radix, -radix², ... down to the last power that fits in a long
+     */
+    private static final long[][] NEGATIVE_POWERS = new long[MAX_RADIX + 1][];
+
+    static {
+        for (int radix = MIN_RADIX; radix <= MAX_RADIX; radix++) {
+            long[] powers = new long[64];
+            int n = 0;
+            for (long p = -radix; ; p *= radix) {
+                powers[n++] = p;
+                if (p < Long.MIN_VALUE / radix) {
+                    break;
+                }
+            }
+            NEGATIVE_POWERS[radix] = java.util.Arrays.copyOf(powers, n);
+        }
+    }
+
+    private RadixFormat() {
+    }
+
+    /**
+     * @param radix radix
+     * @return characters of the longest `long` in `radix`, sign included
+     */
+    public static int maxLength(int radix) {
+        check(radix);
+        return 1 + digits(Long.MIN_VALUE, radix);
+    }
+
+    /**
+     * write `value` in `radix` with lower case digits
+     * @param value value
+     * @param radix radix, 2 to 36
+     * @param buffer destination
+     * @param offset index of the first character
+     * @return index after the last character
+     */
+    public static int format(long value, int radix, char[] buffer, int offset) {
+        return format(value, radix, false, buffer, offset);
+    }
+
+    /**
+     * write `value` in `radix`, `-` and the digits of its magnitude when it is negative
+     * @param value value
+     * @param radix radix, 2 to 36
+     * @param upperCase true for digits `A` to `Z`, false for `a` to `z`
+     * @param buffer destination, at least {@link #maxLength(int)} characters from `offset` are always enough
+     * @param offset index of the first character
+     * @return index after the last character
+     */
+    public static int format(long value, int radix, boolean upperCase, char[] buffer, int offset) {
+        check(radix);
+        long q = value < 0 ? value : -value;
+        if (value < 0) {
+            buffer[offset++] = '-';
+        }
+        int end = offset + digits(q, radix);
+        char[] pairs = pairs(radix, upperCase);
+        int pos = end;
+        if ((radix & (radix - 1)) == 0) {
+            // the magnitude as an unsigned number, exact even for Long.MIN_VALUE
+            long m = -q;
+            int shift = Integer.numberOfTrailingZeros(radix);
+            int mask = radix * radix - 1;
+            while (pos > offset + 1) {
+                int pair = (int) m & mask;
+                buffer[--pos] = pairs[pair * 2 + 1];
+                buffer[--pos] = pairs[pair * 2];
+                m >>>= shift * 2;
+            }
+            if (pos > offset) {
+                buffer[--pos] = pairs[((int) m & (radix - 1)) * 2 + 1];
+            }
+            return end;
+        }
+        int square = radix * radix;
+        // long division only while the value is out of int range
+        while (q < Integer.MIN_VALUE) {
+            long next = q / square;
+            int pair = (int) (next * square - q);
+            q = next;
+            buffer[--pos] = pairs[pair * 2 + 1];
+            buffer[--pos] = pairs[pair * 2];
+        }
+        int n = (int) q;
+        if (radix == 10) {
+            while (n <= -100) {
+                int next = n / 100;
+                int pair = next * 100 - n;
+                n = next;
+                buffer[--pos] = pairs[pair * 2 + 1];
+                buffer[--pos] = pairs[pair * 2];
+            }
+        } else {
+            while (n <= -square) {
+                int next = n / square;
+                int pair = next * square - n;
+                n = next;
+                buffer[--pos] = pairs[pair * 2 + 1];
+                buffer[--pos] = pairs[pair * 2];
+            }
+        }
+        // one or two digits left
+        int rest = -n;
+        buffer[--pos] = pairs[rest * 2 + 1];
+        if (pos > offset) {
+            buffer[--pos] = pairs[rest * 2];
+        }
+        return end;
+    }
+
+    /**
+     * @param value value
+     * @param radix radix, 2 to 36
+     * @return `value` in `radix` with lower case digits, as {@link Long#toString(long, int)} gives it
+     */
+    public static String toString(long value, int radix) {
+        return toString(value, radix, false);
+    }
+
+    /**
+     * @param value value
+     * @param radix radix, 2 to 36
+     * @param upperCase true for digits `A` to `Z`, false for `a` to `z`
+     * @return `value` in `radix`
+     */
+    public static String toString(long value, int radix, boolean upperCase) {
+        char[] buffer = new char[maxLength(radix)];
+        return new String(buffer, 0, format(value, radix, upperCase, buffer, 0));
+    }
+
+    /**
+     * write many values in `radix`, each followed by `separator`, without creating a String per value
+     * @param values values
+     * @param count number of values to write, from index 0
+     * @param radix radix, 2 to 36
+     * @param upperCase true for digits `A` to `Z`, false for `a` to `z`
+     * @param separator character written after every value
+     * @param buffer destination, `count * (maxLength(radix) + 1)` characters are always enough
+     * @param offset index of the first character
+     * @return index after the last character
+     */
+    public static int formatAll(int[] values, int count, int radix, boolean upperCase, char separator,
+                                char[] buffer, int offset) {
+        int pos = offset;
+        for (int i = 0; i < count; i++) {
+            pos = format(values[i], radix, upperCase, buffer, pos);
+            buffer[pos++] = separator;
+        }
+        return pos;
+    }
+
+    /**
+     * @param q zero or a negative value
+     * @param radix radix
+     * @return number of digits of `q`'s magnitude in `radix`
+     */
+    private static int digits(long q, int radix) {
+        if ((radix & (radix - 1)) == 0) {
+            int bits = 64 - Long.numberOfLeadingZeros(-q);
+            int shift = Integer.numberOfTrailingZeros(radix);
+            return Math.max(1, (bits + shift - 1) / shift);
+        }
+        long[] powers = NEGATIVE_POWERS[radix];
+        int n = 0;
+        while (n < powers.length && q <= powers[n]) {
+            n++;
+        }
+        return n + 1;
+    }
+
+    /**
+     * @param radix radix
+     * @param upperCase true for digits `A` to `Z`
+     * @return digit pair table of `radix`, `table[2 * v]` and `table[2 * v + 1]` are the digits of `v`
+     */
+    private static char[] pairs(int radix, boolean upperCase) {
+        char[][] tables = upperCase ? UPPER_PAIRS : LOWER_PAIRS;
+        char[] table = tables[radix];
+        if (table == null) {
+            // racy but idempotent, every thread builds the same table
+            char[] digits = upperCase ? UPPER_DIGITS : LOWER_DIGITS;
+            table = new char[radix * radix * 2];
+            for (int v = 0; v < radix * radix; v++) {
+                table[2 * v] = digits[v / radix];
+                table[2 * v + 1] = digits[v % radix];
+            }
+            tables[radix] = table;
+        }
+        return table;
+    }
+
+    /**
+     * @param radix radix
+     * @throws IllegalArgumentException if `radix` is outside 2 to 36
+     */
+    static void check(int radix) {
+        if (radix < MIN_RADIX || radix > MAX_RADIX) {
+            throw new IllegalArgumentException("radix " + radix + " is outside " + MIN_RADIX + " to " + MAX_RADIX);
+        }
+    }
+}
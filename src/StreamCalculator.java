@@ -0,0 +1,214 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * headless line-by-line evaluation of large expression files
+ * <p>
+ * every input line is one expression, every output line is its result in the same radix or `invalid`.
+ * bytes are fed straight into a {@link Calculation} without building Strings, files are memory-mapped one
+ * window at a time and results go out through one reused buffer, so memory use does not grow with the input
+ * <pre>
+ * java StreamCalculator radix [input|-] [output]
+ * </pre>
+ */
+public class StreamCalculator {
+    /**
+     * input mapping window
+     */
+    private static final long WINDOW = 1L << 28;
+
+    /**
+     * buffer size for stdin and output
+     */
+    private static final int BUFFER = 1 << 20;
+
+    /**
+     * longest output line: sign, 32 binary digits and newline
+     */
+    static final int MAX_LINE = 34;
+
+    private static final byte[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+    private static final byte[] INVALID = "invalid\n".getBytes();
+
+    private final Calculation calc = new Calculation();
+    private final byte[] scratch = new byte[MAX_LINE];
+    private final int base;
+
+    /**
+     * true when bytes of an unfinished line have been fed
+     */
+    private boolean pending;
+
+    /**
+     * @param base expression radix, 2 to 36
+     * @throws IllegalArgumentException if `base` is outside 2 to 36
+     */
+    public StreamCalculator(int base) {
+        RadixFormat.check(base);
+        this.base = base;
+        calc.reset(base);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("usage: java StreamCalculator radix [input|-] [output]");
+            System.exit(2);
+        }
+        int base = Integer.parseInt(args[0]);
+        if (base < RadixFormat.MIN_RADIX || base > RadixFormat.MAX_RADIX) {
+            System.err.println("radix " + base + " is outside " + RadixFormat.MIN_RADIX + " to "
+                    + RadixFormat.MAX_RADIX);
+            System.exit(2);
+        }
+        StreamCalculator stream = new StreamCalculator(base);
+        WritableByteChannel out = args.length == 3
+                ? FileChannel.open(Path.of(args[2]), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+                : new FileOutputStream(FileDescriptor.out).getChannel();
+        try (out) {
+            if (args.length == 1 || args[1].equals("-")) {
+                stream.run(Channels.newChannel(System.in), out);
+            } else {
+                try (FileChannel in = FileChannel.open(Path.of(args[1]), StandardOpenOption.READ)) {
+                    stream.run(in, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * evaluate a whole file, mapping it window by window
+     * @param in input file
+     * @param out result sink
+     * @throws IOException if reading or writing fails
+     */
+    public void run(FileChannel in, WritableByteChannel out) throws IOException {
+        ByteBuffer results = ByteBuffer.allocateDirect(BUFFER);
+        long size = in.size();
+        for (long position = 0; position < size; position += WINDOW) {
+            ByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+            drain(window, results, out);
+        }
+        close(results, out);
+    }
+
+    /**
+     * evaluate a whole stream
+     * @param in input stream
+     * @param out result sink
+     * @throws IOException if reading or writing fails
+     */
+    public void run(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        ByteBuffer input = ByteBuffer.allocateDirect(BUFFER);
+        ByteBuffer results = ByteBuffer.allocateDirect(BUFFER);
+        while (in.read(input) != -1) {
+            input.flip();
+            drain(input, results, out);
+            input.clear();
+        }
+        close(results, out);
+    }
+
+    /**
+     * evaluate every complete line of `in`, a trailing partial line stays pending for the next call
+     * <p>
+     * stops early when `out` has less than {@link #MAX_LINE} bytes left, so callers flush and call again
+     * @param in expression bytes
+     * @param out result bytes
+     */
+    public void process(ByteBuffer in, ByteBuffer out) {
+        while (in.hasRemaining() && out.remaining() >= MAX_LINE) {
+            byte b = in.get();
+            if (b == '\n') {
+                emit(out);
+            } else {
+                calc.feed((char) (b & 0xFF));
+                pending = true;
+            }
+        }
+    }
+
+    /**
+     * write the result of a last line that has no newline
+     * @param out result bytes, at least {@link #MAX_LINE} bytes free
+     */
+    public void flush(ByteBuffer out) {
+        if (pending) {
+            emit(out);
+        }
+    }
+
+    /**
+     * finish the current line and write its result
+     * @param out result bytes
+     */
+    private void emit(ByteBuffer out) {
+        if (calc.finish()) {
+            int from = format(calc.value());
+            out.put(scratch, from, MAX_LINE - from);
+        } else {
+            out.put(INVALID);
+        }
+        calc.reset(base);
+        pending = false;
+    }
+
+    /**
+     * format `value` right-aligned into `scratch`, newline included
+     * @param value result
+     * @return index of the first byte
+     */
+    private int format(int value) {
+        int pos = MAX_LINE;
+        scratch[--pos] = '\n';
+        // work on the negative magnitude so Integer.MIN_VALUE needs no special case
+        int n = value < 0 ? value : -value;
+        do {
+            scratch[--pos] = DIGITS[-(n % base)];
+            n /= base;
+        } while (n != 0);
+        if (value < 0) {
+            scratch[--pos] = '-';
+        }
+        return pos;
+    }
+
+    /**
+     * process `in` completely, flushing `results` whenever it fills up
+     */
+    private void drain(ByteBuffer in, ByteBuffer results, WritableByteChannel out) throws IOException {
+        while (in.hasRemaining()) {
+            process(in, results);
+            if (results.remaining() < MAX_LINE) {
+                write(results, out);
+            }
+        }
+    }
+
+    /**
+     * flush the last line and every buffered result
+     */
+    private void close(ByteBuffer results, WritableByteChannel out) throws IOException {
+        if (results.remaining() < MAX_LINE) {
+            write(results, out);
+        }
+        flush(results);
+        write(results, out);
+    }
+
+    private static void write(ByteBuffer results, WritableByteChannel out) throws IOException {
+        results.flip();
+        while (results.hasRemaining()) {
+            out.write(results);
+        }
+        results.clear();
+    }
+}